@@ -0,0 +1,84 @@
+package com.kcsl.loopmodel.algorithms;
+
+import java.util.Arrays;
+
+/**
+ * An in-memory {@link OrdinalGraph}, built edge by edge. The outgoing edges of
+ * each node keep the order they were added in.
+ */
+class IntGraph implements OrdinalGraph {
+
+	private final int nodeCount;
+	private final int[] edgeOffsets;
+	private final int[] edgeTargets;
+
+	private IntGraph(int nodeCount, int[] edgeOffsets, int[] edgeTargets) {
+		this.nodeCount = nodeCount;
+		this.edgeOffsets = edgeOffsets;
+		this.edgeTargets = edgeTargets;
+	}
+
+	@Override
+	public int nodeCount() {
+		return nodeCount;
+	}
+
+	@Override
+	public int[] edgeOffsets() {
+		return edgeOffsets;
+	}
+
+	@Override
+	public int[] edgeTargets() {
+		return edgeTargets;
+	}
+
+	public int edgeCount() {
+		return edgeOffsets[nodeCount];
+	}
+
+	static class Builder {
+		private int nodeCount;
+		private int edgeCount;
+		private int[] sources = new int[16];
+		private int[] targets = new int[16];
+
+		/**
+		 * Adds a node and returns its ordinal
+		 */
+		int addNode() {
+			return nodeCount++;
+		}
+
+		void addEdge(int from, int to) {
+			if (from < 0 || from >= nodeCount || to < 0 || to >= nodeCount) {
+				throw new IllegalArgumentException("Unknown node in edge " + from + " -> " + to);
+			}
+			if (edgeCount == sources.length) {
+				sources = Arrays.copyOf(sources, edgeCount * 2);
+				targets = Arrays.copyOf(targets, edgeCount * 2);
+			}
+			sources[edgeCount] = from;
+			targets[edgeCount] = to;
+			edgeCount++;
+		}
+
+		IntGraph build() {
+			// counting sort of the edges by source, stable so each node keeps its edge order
+			int[] edgeOffsets = new int[nodeCount + 1];
+			for (int i = 0; i < edgeCount; i++) {
+				edgeOffsets[sources[i] + 1]++;
+			}
+			for (int node = 0; node < nodeCount; node++) {
+				edgeOffsets[node + 1] += edgeOffsets[node];
+			}
+			int[] cursors = Arrays.copyOf(edgeOffsets, nodeCount);
+			int[] edgeTargets = new int[edgeCount];
+			for (int i = 0; i < edgeCount; i++) {
+				edgeTargets[cursors[sources[i]]++] = targets[i];
+			}
+			return new IntGraph(nodeCount, edgeOffsets, edgeTargets);
+		}
+	}
+
+}
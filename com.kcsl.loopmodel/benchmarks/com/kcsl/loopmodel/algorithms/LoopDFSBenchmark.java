@@ -0,0 +1,187 @@
+package com.kcsl.loopmodel.algorithms;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measures the throughput and allocation rate of {@link LoopDFS} over
+ * {@link SyntheticCFGs}, without Atlas.
+ * <p>
+ * Usage: <code>LoopDFSBenchmark [-warmup ms] [-measure ms] [-forks n] [-verify] [scenario...]</code>
+ * <p>
+ * Each scenario runs in its own warmed up loop on a single reused
+ * {@link LoopDFS}, the way a DLI worker uses it, once walking header chains
+ * link by link and once with path compression. Allocation is measured with
+ * the per-thread allocation counter of the JVM, so it is only reported on JVMs
+ * that support it.
+ * <p>
+ * With <code>-verify</code> nothing is timed, instead both modes are run on
+ * every scenario and on a range of random goto graphs and their results are
+ * compared.
+ */
+public class LoopDFSBenchmark {
+
+	private static final Map<String, IntGraph> SCENARIOS = new LinkedHashMap<String, IntGraph>();
+
+	static {
+		SCENARIOS.put("nested-8", SyntheticCFGs.nestedLoops(8, 4));
+		SCENARIOS.put("nested-256", SyntheticCFGs.nestedLoops(256, 2));
+		SCENARIOS.put("goto-1k", SyntheticCFGs.irreducibleGotos(1_000, 0.2, 42));
+		SCENARIOS.put("goto-20k", SyntheticCFGs.irreducibleGotos(20_000, 0.05, 42));
+		SCENARIOS.put("switch-2k", SyntheticCFGs.switchLoop(2_000));
+		SCENARIOS.put("straight-100k", SyntheticCFGs.straightLine(100_000));
+	}
+
+	/** Keeps the results alive so the DFS is not optimized away */
+	private static volatile long sink;
+
+	public static void main(String[] args) {
+		long warmupMillis = 2_000;
+		long measureMillis = 5_000;
+		int forks = 3;
+		boolean verify = false;
+		List<String> selected = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "-warmup":
+				warmupMillis = Long.parseLong(args[++i]);
+				break;
+			case "-measure":
+				measureMillis = Long.parseLong(args[++i]);
+				break;
+			case "-forks":
+				forks = Integer.parseInt(args[++i]);
+				break;
+			case "-verify":
+				verify = true;
+				break;
+			default:
+				if (!SCENARIOS.containsKey(args[i])) {
+					throw new IllegalArgumentException("Unknown scenario " + args[i] + ", expected one of " + SCENARIOS.keySet());
+				}
+				selected.add(args[i]);
+			}
+		}
+		if (selected.isEmpty()) {
+			selected.addAll(SCENARIOS.keySet());
+		}
+
+		if (verify) {
+			verify(selected);
+			return;
+		}
+
+		System.out.println(String.format("%-14s %-8s %8s %8s %8s %14s %14s %14s", "scenario", "mode", "nodes", "edges",
+				"loops", "ops/s", "us/op", "bytes/op"));
+		for (String scenario : selected) {
+			IntGraph graph = SCENARIOS.get(scenario);
+			for (boolean pathCompression : new boolean[] { false, true }) {
+				double[] throughput = new double[forks];
+				double bytesPerOp = 0;
+				for (int fork = 0; fork < forks; fork++) {
+					// a fresh workspace per fork, so growing it is part of the warmup
+					LoopDFS dfs = new LoopDFS(pathCompression);
+					run(dfs, graph, warmupMillis);
+					Measurement measurement = run(dfs, graph, measureMillis);
+					throughput[fork] = measurement.operations * 1e9 / measurement.nanos;
+					bytesPerOp = measurement.bytes < 0 ? -1 : (double) measurement.bytes / measurement.operations;
+				}
+				Arrays.sort(throughput);
+				double median = throughput[forks / 2];
+				System.out.println(String.format("%-14s %-8s %8d %8d %8d %14.1f %14.3f %14s", scenario,
+						pathCompression ? "compress" : "exact", graph.nodeCount(), graph.edgeCount(), countLoops(graph),
+						median, 1e6 / median, bytesPerOp < 0 ? "n/a" : String.format("%.1f", bytesPerOp)));
+			}
+		}
+	}
+
+	/**
+	 * Checks that path compression finds the same loops as the exact walk
+	 */
+	private static void verify(List<String> scenarios) {
+		LoopDFS exact = new LoopDFS(false);
+		LoopDFS compressed = new LoopDFS(true);
+		int graphs = 0;
+		for (String scenario : scenarios) {
+			compare(scenario, SCENARIOS.get(scenario), exact, compressed);
+			graphs++;
+		}
+		for (int seed = 0; seed < 2_000; seed++) {
+			int blocks = 2 + seed % 300;
+			double gotoProbability = 0.05 + (seed % 7) * 0.1;
+			compare("goto seed " + seed, SyntheticCFGs.irreducibleGotos(blocks, gotoProbability, seed), exact, compressed);
+			graphs++;
+		}
+		System.out.println("Path compression matches the exact walk on " + graphs + " graphs");
+	}
+
+	private static void compare(String name, IntGraph graph, LoopDFS exact, LoopDFS compressed) {
+		exact.run(graph, 0);
+		compressed.run(graph, 0);
+		int n = graph.nodeCount();
+		int words = (n + 63) >>> 6;
+		if (!Arrays.equals(exact.innermostLoopHeaders, 0, n, compressed.innermostLoopHeaders, 0, n)
+				|| !Arrays.equals(exact.irreducible, 0, words, compressed.irreducible, 0, words)
+				|| !Arrays.equals(exact.reentryNodes, 0, words, compressed.reentryNodes, 0, words)
+				|| !Arrays.equals(exact.loopbacks, 0, exact.loopbackCount, compressed.loopbacks, 0, compressed.loopbackCount)
+				|| !Arrays.equals(exact.reentryEdges, 0, exact.reentryEdgeCount, compressed.reentryEdges, 0, compressed.reentryEdgeCount)) {
+			throw new IllegalStateException("Path compression differs from the exact walk on " + name);
+		}
+	}
+
+	private static class Measurement {
+		long operations;
+		long nanos;
+		long bytes;
+	}
+
+	private static Measurement run(LoopDFS dfs, IntGraph graph, long millis) {
+		Measurement measurement = new Measurement();
+		long bytesBefore = allocatedBytes();
+		long start = System.nanoTime();
+		long deadline = start + millis * 1_000_000L;
+		long result = 0;
+		long now;
+		do {
+			dfs.run(graph, 0);
+			result += dfs.loopbackCount + dfs.reentryEdgeCount;
+			measurement.operations++;
+		} while ((now = System.nanoTime()) < deadline);
+		measurement.nanos = now - start;
+		long bytesAfter = allocatedBytes();
+		measurement.bytes = bytesBefore < 0 ? -1 : bytesAfter - bytesBefore;
+		sink += result;
+		return measurement;
+	}
+
+	private static int countLoops(IntGraph graph) {
+		LoopDFS dfs = new LoopDFS();
+		dfs.run(graph, 0);
+		boolean[] headers = new boolean[graph.nodeCount()];
+		int loops = 0;
+		for (int node = 0; node < graph.nodeCount(); node++) {
+			int header = dfs.innermostLoopHeaders[node];
+			if (header >= 0 && !headers[header]) {
+				headers[header] = true;
+				loops++;
+			}
+		}
+		return loops;
+	}
+
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean) threads;
+			if (allocation.isThreadAllocatedMemorySupported() && allocation.isThreadAllocatedMemoryEnabled()) {
+				return allocation.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return -1;
+	}
+
+}
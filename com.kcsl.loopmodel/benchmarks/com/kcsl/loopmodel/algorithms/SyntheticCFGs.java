@@ -0,0 +1,140 @@
+package com.kcsl.loopmodel.algorithms;
+
+import java.util.Random;
+
+/**
+ * Generators for control flow graphs that stress different parts of the loop
+ * DFS. Node 0 is always the entry of the generated graph.
+ */
+class SyntheticCFGs {
+
+	private SyntheticCFGs() {}
+
+	/**
+	 * Loops nested <code>depth</code> deep, each loop body is a short chain
+	 * around the nested loop, like a deep loop nest in numerical code.
+	 *
+	 * @param depth
+	 * @param bodyLength The number of statements before and after each nested loop
+	 * @return
+	 */
+	static IntGraph nestedLoops(int depth, int bodyLength) {
+		IntGraph.Builder builder = new IntGraph.Builder();
+		int entry = builder.addNode();
+		int exit = nest(builder, entry, depth, bodyLength);
+		int end = builder.addNode();
+		builder.addEdge(exit, end);
+		return builder.build();
+	}
+
+	/**
+	 * Adds a loop nest starting at <code>from</code> and returns the loop exit
+	 */
+	private static int nest(IntGraph.Builder builder, int from, int depth, int bodyLength) {
+		int header = builder.addNode();
+		builder.addEdge(from, header);
+		int current = chain(builder, header, bodyLength);
+		if (depth > 1) {
+			current = nest(builder, current, depth - 1, bodyLength);
+		}
+		current = chain(builder, current, bodyLength);
+		// latch
+		builder.addEdge(current, header);
+		int exit = builder.addNode();
+		builder.addEdge(header, exit);
+		return exit;
+	}
+
+	/**
+	 * A function made of <code>blocks</code> straight-line blocks where every
+	 * block may also jump to a random other block with the given probability,
+	 * like goto heavy error handling code. Backward and cross jumps create
+	 * many irreducible loops.
+	 *
+	 * @param blocks
+	 * @param gotoProbability
+	 * @param seed
+	 * @return
+	 */
+	static IntGraph irreducibleGotos(int blocks, double gotoProbability, long seed) {
+		Random random = new Random(seed);
+		IntGraph.Builder builder = new IntGraph.Builder();
+		for (int i = 0; i < blocks; i++) {
+			builder.addNode();
+		}
+		for (int i = 0; i + 1 < blocks; i++) {
+			builder.addEdge(i, i + 1);
+			if (random.nextDouble() < gotoProbability) {
+				// never jump back to the entry, functions do not
+				builder.addEdge(i, 1 + random.nextInt(blocks - 1));
+			}
+		}
+		return builder.build();
+	}
+
+	/**
+	 * A dispatch loop around a switch statement with <code>cases</code> cases,
+	 * every other case falling through into the next one, like an
+	 * interpreter or a state machine.
+	 *
+	 * @param cases
+	 * @return
+	 */
+	static IntGraph switchLoop(int cases) {
+		IntGraph.Builder builder = new IntGraph.Builder();
+		int entry = builder.addNode();
+		int header = builder.addNode();
+		int dispatch = builder.addNode();
+		int join = builder.addNode();
+		int exit = builder.addNode();
+		builder.addEdge(entry, header);
+		builder.addEdge(header, dispatch);
+		builder.addEdge(header, exit);
+		int previous = -1;
+		for (int i = 0; i < cases; i++) {
+			int label = builder.addNode();
+			builder.addEdge(dispatch, label);
+			if (previous >= 0) {
+				// fall through
+				builder.addEdge(previous, label);
+			}
+			int body = builder.addNode();
+			builder.addEdge(label, body);
+			if (i % 2 == 0) {
+				previous = body;
+			} else {
+				builder.addEdge(body, join);
+				previous = -1;
+			}
+		}
+		if (previous >= 0) {
+			builder.addEdge(previous, join);
+		}
+		builder.addEdge(join, header);
+		return builder.build();
+	}
+
+	/**
+	 * A long function without branches
+	 *
+	 * @param length
+	 * @return
+	 */
+	static IntGraph straightLine(int length) {
+		IntGraph.Builder builder = new IntGraph.Builder();
+		int entry = builder.addNode();
+		chain(builder, entry, length - 1);
+		return builder.build();
+	}
+
+	private static int chain(IntGraph.Builder builder, int from, int length) {
+		int current = from;
+		for (int i = 0; i < length; i++) {
+			int next = builder.addNode();
+			builder.addEdge(current, next);
+			current = next;
+		}
+		return current;
+	}
+
+}
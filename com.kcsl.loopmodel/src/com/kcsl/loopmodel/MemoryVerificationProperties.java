@@ -2,7 +2,6 @@ package com.kcsl.loopmodel;
 
 import static com.ensoftcorp.atlas.core.script.Common.universe;
 
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Path;
@@ -54,29 +53,84 @@ public class MemoryVerificationProperties {
 	private static Path OUTPUT_DIRECTORY;
 	
 	/**
-	 * An instance of {@link FileWriter} that will be used to report verification result to a log file.
+	 * The number of worker threads to be used for loop recovery, a non-positive value uses one per available processor.
 	 */
-	private static FileWriter C_RESULT_FILE_WRITER;
+	private static int LOOP_RECOVERY_PARALLELISM;
+	
+	/**
+	 * A {@link boolean} flag to indicate whether loop recovery walks loop header chains with path compression.
+	 */
+	private static boolean LOOP_RECOVERY_PATH_COMPRESSION;
+	
+	/**
+	 * A {@link Path} corresponding to the loop index file, null if no loop index should be used.
+	 */
+	private static Path LOOP_INDEX_FILE_PATH;
+	
+	/**
+	 * A {@link Path} corresponding to the loop recovery statistics file, null if no statistics should be saved.
+	 */
+	private static Path LOOP_RECOVERY_REPORT_FILE_PATH;
+	
 	/**
-	 * An instance of {@link FileWriter} that will be used to report verification result to a log file.
+	 * The maximum number of functions whose verification data is cached at the same time.
 	 */
-	private static FileWriter C1_RESULT_FILE_WRITER;
+	private static int FUNCTION_CONTEXT_CACHE_SIZE;
 	
 	/**
-	 * An instance of {@link FileWriter} that will be used to report verification result to a log file.
+	 * A {@link boolean} flag to indicate whether loops are classified grouped by their containing function.
 	 */
-	private static FileWriter C2_RESULT_FILE_WRITER;
+	private static boolean FUNCTION_GROUPED_CLASSIFICATION;
 	
 	/**
-	 * An instance of {@link FileWriter} that will be used to report verification result to a log file.
+	 * The number of worker threads to be used for loop classification, a non-positive value uses one per available processor.
 	 */
-	private static FileWriter C3_RESULT_FILE_WRITER;
+	private static int VERIFICATION_PARALLELISM;
 	
 	/**
-	 * An instance of {@link FileWriter} that will be used to report verification result to a log file.
+	 * A {@link boolean} flag to indicate whether verification runs without displaying any graph to the user.
 	 */
-	private static FileWriter PROBLEMATIC_LOOP_OUTPUT_RESULT_FILE_WRITER;
+	private static boolean HEADLESS_VERIFICATION;
 	
+	/**
+	 * A {@link boolean} flag to indicate whether callsites of functions that may cause an event through their callees are classified as events.
+	 */
+	private static boolean EVENT_WRAPPER_SUMMARIES;
+	
+	/**
+	 * The number of worker threads saving verification graphs, a non-positive value uses one per available processor.
+	 */
+	private static int GRAPH_EXPORT_PARALLELISM;
+	
+	/**
+	 * A {@link Path} corresponding to the directory where each distinct verification graph is saved once, null to save the graphs of every loop in the loop's directory.
+	 */
+	private static Path GRAPH_ARTIFACTS_DIRECTORY_PATH;
+	
+	/**
+	 * The maximum number of nodes and edges of the PCGs kept for reuse while saving verification graphs, 0 to not keep any PCG.
+	 */
+	private static long PCG_CACHE_SIZE;
+	
+	/**
+	 * A {@link boolean} flag to indicate whether the saved graphs of a loop only contain the loop and the control flow around its events instead of its whole function.
+	 */
+	private static boolean LOOP_SCOPED_GRAPHS;
+	
+	/**
+	 * The maximum number of verification graphs waiting for an export worker before verification waits.
+	 */
+	private static int GRAPH_EXPORT_QUEUE_CAPACITY;
+	
+	/**
+	 * The maximum number of milliseconds result rows stay buffered before they are flushed to the result files, 0 flushes whenever no row is pending.
+	 */
+	private static long RESULT_FLUSH_INTERVAL;
+	
+	/**
+	 * A {@link Path} corresponding to the verdict cache file, null if every loop should be classified again.
+	 */
+	private static Path VERIFICATION_CACHE_FILE_PATH;
 	
 	/**
 	 * An instance of {@link Path} corresponding to the output log file.
@@ -144,6 +198,41 @@ public class MemoryVerificationProperties {
 	 */
 	private static List<String> MEM_FREE_FUNCTION_CALLS;
 	
+	/**
+	 * The names of the event pairs whose loops are classified, see "event_pairs".
+	 */
+	private static List<String> EVENT_PAIRS;
+	
+	/**
+	 * A list of {@link String}s corresponding to the name of spin lock function calls, from "lockconfig.properties".
+	 */
+	private static List<String> SPIN_LOCK_FUNCTION_CALLS;
+	
+	/**
+	 * A list of {@link String}s corresponding to the name of spin unlock function calls, from "lockconfig.properties".
+	 */
+	private static List<String> SPIN_UNLOCK_FUNCTION_CALLS;
+	
+	/**
+	 * A {@link Path} to be used for saving the spin lock verification graphs.
+	 */
+	private static Path SPIN_GRAPHS_OUTPUT_DIRECTORY_PATH;
+	
+	/**
+	 * A list of {@link String}s corresponding to the name of mutex lock function calls, from "lockconfig.properties".
+	 */
+	private static List<String> MUTEX_LOCK_FUNCTION_CALLS;
+	
+	/**
+	 * A list of {@link String}s corresponding to the name of mutex unlock function calls, from "lockconfig.properties".
+	 */
+	private static List<String> MUTEX_UNLOCK_FUNCTION_CALLS;
+	
+	/**
+	 * A {@link Path} to be used for saving the mutex lock verification graphs.
+	 */
+	private static Path MUTEX_GRAPHS_OUTPUT_DIRECTORY_PATH;
+	
 	private static String RESULT_FILE_HEADER;
 	
 	private static String PROBLEMATIC_LOOP_FILE_HEADER;
@@ -158,34 +247,42 @@ public class MemoryVerificationProperties {
 			OUTPUT_DIRECTORY = Paths.get(properties.getProperty("output_directory"));
 			checkOrCreatedirectory();
 			
-			try {
-				C_RESULT_FILE_PATH = Paths.get(OUTPUT_DIRECTORY.toFile().getAbsolutePath(), properties.getProperty("c_loop_output_result_filename"));
-				C_RESULT_FILE_WRITER = new FileWriter(C_RESULT_FILE_PATH.toFile().getAbsolutePath());
-			
-				C1_RESULT_FILE_PATH = Paths.get(OUTPUT_DIRECTORY.toFile().getAbsolutePath(), properties.getProperty("c1_loop_output_result_filename"));
-				C1_RESULT_FILE_WRITER = new FileWriter(C1_RESULT_FILE_PATH.toFile().getAbsolutePath());
-				
-				C2_RESULT_FILE_PATH = Paths.get(OUTPUT_DIRECTORY.toFile().getAbsolutePath(), properties.getProperty("c2_loop_output_result_filename"));
-				C2_RESULT_FILE_WRITER = new FileWriter(C2_RESULT_FILE_PATH.toFile().getAbsolutePath());
-				
-				C3_RESULT_FILE_PATH = Paths.get(OUTPUT_DIRECTORY.toFile().getAbsolutePath(), properties.getProperty("c3_loop_output_result_filename"));
-				C3_RESULT_FILE_WRITER = new FileWriter(C3_RESULT_FILE_PATH.toFile().getAbsolutePath());
-				
-				PROBLEMATIC_LOOP_OUTPUT_RESULT_FILE_PATH = Paths.get(OUTPUT_DIRECTORY.toFile().getAbsolutePath(), properties.getProperty("problematic_loop_output_result_filename"));
-				PROBLEMATIC_LOOP_OUTPUT_RESULT_FILE_WRITER = new FileWriter(PROBLEMATIC_LOOP_OUTPUT_RESULT_FILE_PATH.toFile().getAbsolutePath());
-			    
-			} catch (IOException e) {
-				System.err.println("Cannot open output log file for writing.");
-			}
+			// the result files are created when a verification run opens them, see ResultSink
+			C_RESULT_FILE_PATH = Paths.get(OUTPUT_DIRECTORY.toFile().getAbsolutePath(), properties.getProperty("c_loop_output_result_filename"));
+			C1_RESULT_FILE_PATH = Paths.get(OUTPUT_DIRECTORY.toFile().getAbsolutePath(), properties.getProperty("c1_loop_output_result_filename"));
+			C2_RESULT_FILE_PATH = Paths.get(OUTPUT_DIRECTORY.toFile().getAbsolutePath(), properties.getProperty("c2_loop_output_result_filename"));
+			C3_RESULT_FILE_PATH = Paths.get(OUTPUT_DIRECTORY.toFile().getAbsolutePath(), properties.getProperty("c3_loop_output_result_filename"));
+			PROBLEMATIC_LOOP_OUTPUT_RESULT_FILE_PATH = Paths.get(OUTPUT_DIRECTORY.toFile().getAbsolutePath(), properties.getProperty("problematic_loop_output_result_filename"));
 			
 			SAVE_VERIFICATION_GRAPHS = Boolean.parseBoolean(properties.getProperty("save_verification_graphs"));
 			SAVE_GRAPH_IN_DOT_FORMAT = Boolean.parseBoolean(properties.getProperty("save_graphs_in_dot_format"));
 			GRAPH_IMAGE_FILENAME_EXTENSION = properties.getProperty("graph_image_filename_extension");
 			GRAPH_DOT_FILENAME_EXTENSION = properties.getProperty("graph_dot_filename_extension");
 			INTERACTIVE_VERIFICATION_GRAPHS_OUTPUT_DIRECTORY_PATH = Paths.get(OUTPUT_DIRECTORY.toFile().getAbsolutePath(), properties.getProperty("interactive_verification_graphs_output_directory_name"));
+			LOOP_RECOVERY_PARALLELISM = Integer.parseInt(properties.getProperty("loop_recovery_parallelism", "0").trim());
+			LOOP_RECOVERY_PATH_COMPRESSION = Boolean.parseBoolean(properties.getProperty("loop_recovery_path_compression", "false").trim());
+			String loopIndexFileName = properties.getProperty("loop_index_filename", "").trim();
+			LOOP_INDEX_FILE_PATH = loopIndexFileName.isEmpty() ? null : Paths.get(OUTPUT_DIRECTORY.toFile().getAbsolutePath(), loopIndexFileName);
+			String loopRecoveryReportFileName = properties.getProperty("loop_recovery_report_filename", "").trim();
+			LOOP_RECOVERY_REPORT_FILE_PATH = loopRecoveryReportFileName.isEmpty() ? null : Paths.get(OUTPUT_DIRECTORY.toFile().getAbsolutePath(), loopRecoveryReportFileName);
+			FUNCTION_CONTEXT_CACHE_SIZE = Math.max(1, Integer.parseInt(properties.getProperty("function_context_cache_size", "128").trim()));
+			FUNCTION_GROUPED_CLASSIFICATION = Boolean.parseBoolean(properties.getProperty("function_grouped_classification", "true").trim());
+			VERIFICATION_PARALLELISM = Integer.parseInt(properties.getProperty("verification_parallelism", "1").trim());
+			HEADLESS_VERIFICATION = Boolean.parseBoolean(properties.getProperty("headless_verification", "false").trim());
+			EVENT_WRAPPER_SUMMARIES = Boolean.parseBoolean(properties.getProperty("event_wrapper_summaries", "false").trim());
+			GRAPH_EXPORT_PARALLELISM = Integer.parseInt(properties.getProperty("graph_export_parallelism", "1").trim());
+			GRAPH_EXPORT_QUEUE_CAPACITY = Math.max(0, Integer.parseInt(properties.getProperty("graph_export_queue_capacity", "64").trim()));
+			String graphArtifactsDirectoryName = properties.getProperty("graph_artifacts_directory_name", "").trim();
+			GRAPH_ARTIFACTS_DIRECTORY_PATH = graphArtifactsDirectoryName.isEmpty() ? null : Paths.get(OUTPUT_DIRECTORY.toFile().getAbsolutePath(), graphArtifactsDirectoryName);
+			LOOP_SCOPED_GRAPHS = Boolean.parseBoolean(properties.getProperty("loop_scoped_graphs", "false").trim());
+			PCG_CACHE_SIZE = Math.max(0, Long.parseLong(properties.getProperty("pcg_cache_size", "0").trim()));
+			RESULT_FLUSH_INTERVAL = Math.max(0, Long.parseLong(properties.getProperty("result_flush_interval_millis", "1000").trim()));
+			String verificationCacheFileName = properties.getProperty("verification_cache_filename", "").trim();
+			VERIFICATION_CACHE_FILE_PATH = verificationCacheFileName.isEmpty() ? null : Paths.get(OUTPUT_DIRECTORY.toFile().getAbsolutePath(), verificationCacheFileName);
 		
 			MEM_ALLOC_FUNCTION_CALLS = Arrays.asList(properties.getProperty("kmalloc").split(CONFIG_PROPERTIES_FILE_SEPARATOR));
 			MEM_FREE_FUNCTION_CALLS = Arrays.asList(properties.getProperty("kfree").split(CONFIG_PROPERTIES_FILE_SEPARATOR));
+			EVENT_PAIRS = Arrays.asList(properties.getProperty("event_pairs", "memory").trim().split(CONFIG_PROPERTIES_FILE_SEPARATOR));
 			C_OUTPUT_DIRECTORY_PATH = Paths.get(OUTPUT_DIRECTORY.toFile().getAbsolutePath(), properties.getProperty("kmalloc_inside_loop_graphs_output_directory_name"));
 			C1_OUTPUT_DIRECTORY_PATH = Paths.get(OUTPUT_DIRECTORY.toFile().getAbsolutePath(), properties.getProperty("both_event_inside_loop_graphs_output_directory_name"));
 			C2_OUTPUT_DIRECTORY_PATH = Paths.get(OUTPUT_DIRECTORY.toFile().getAbsolutePath(), properties.getProperty("kfree_inside_function_graphs_output_directory_name"));
@@ -194,20 +291,23 @@ public class MemoryVerificationProperties {
 			
 			RESULT_FILE_HEADER = properties.getProperty("loop_file_header");
 			PROBLEMATIC_LOOP_FILE_HEADER = properties.getProperty("problematic_loop_file_header");
-			C_RESULT_FILE_WRITER.write(RESULT_FILE_HEADER);
-			C_RESULT_FILE_WRITER.flush();
-			C1_RESULT_FILE_WRITER.write(RESULT_FILE_HEADER);
-			C1_RESULT_FILE_WRITER.flush();
-			C2_RESULT_FILE_WRITER.write(RESULT_FILE_HEADER);
-			C2_RESULT_FILE_WRITER.flush();
-			C3_RESULT_FILE_WRITER.write(RESULT_FILE_HEADER);
-			C3_RESULT_FILE_WRITER.flush();
-			
-			PROBLEMATIC_LOOP_OUTPUT_RESULT_FILE_WRITER.write(PROBLEMATIC_LOOP_FILE_HEADER);
-			PROBLEMATIC_LOOP_OUTPUT_RESULT_FILE_WRITER.flush();
 		} catch (IOException e) {
 			System.err.println("Cannot locate the properties file.");
 		}
+		
+		Properties lockProperties = new Properties();
+		try {
+			inputStream = MemoryVerificationProperties.class.getClassLoader().getResourceAsStream("lockconfig.properties");
+			lockProperties.load(inputStream);
+			SPIN_LOCK_FUNCTION_CALLS = Arrays.asList(lockProperties.getProperty("spin_lock", "").split(CONFIG_PROPERTIES_FILE_SEPARATOR));
+			SPIN_UNLOCK_FUNCTION_CALLS = Arrays.asList(lockProperties.getProperty("spin_unlock", "").split(CONFIG_PROPERTIES_FILE_SEPARATOR));
+			SPIN_GRAPHS_OUTPUT_DIRECTORY_PATH = Paths.get(OUTPUT_DIRECTORY.toFile().getAbsolutePath(), lockProperties.getProperty("spin_graphs_output_directory_name", "spin_graphs"));
+			MUTEX_LOCK_FUNCTION_CALLS = Arrays.asList(lockProperties.getProperty("mutex_lock", "").split(CONFIG_PROPERTIES_FILE_SEPARATOR));
+			MUTEX_UNLOCK_FUNCTION_CALLS = Arrays.asList(lockProperties.getProperty("mutex_unlock", "").split(CONFIG_PROPERTIES_FILE_SEPARATOR));
+			MUTEX_GRAPHS_OUTPUT_DIRECTORY_PATH = Paths.get(OUTPUT_DIRECTORY.toFile().getAbsolutePath(), lockProperties.getProperty("mutex_graphs_output_directory_name", "mutex_graphs"));
+		} catch (Exception e) {
+			System.err.println("Cannot locate the lock properties file.");
+		}
 	}
 	
 	public static boolean isFeasibilityCheckingEnabled(){
@@ -218,81 +318,26 @@ public class MemoryVerificationProperties {
 		return OUTPUT_DIRECTORY;
 	}
 	
-	public static FileWriter getOutputCResultFileWriter(){
-		return C_RESULT_FILE_WRITER;
-	}
-	
-	public static FileWriter getOutputC1ResultFileWriter(){
-		return C1_RESULT_FILE_WRITER;
+	public static Path getCResultFile(){
+		return C_RESULT_FILE_PATH;
 	}
 	
-	public static FileWriter getOutputC2ResultFileWriter(){
-		return C2_RESULT_FILE_WRITER;
+	public static Path getC1ResultFile(){
+		return C1_RESULT_FILE_PATH;
 	}
 	
-	public static FileWriter getOutputC3ResultFileWriter(){
-		return C3_RESULT_FILE_WRITER;
+	public static Path getC2ResultFile(){
+		return C2_RESULT_FILE_PATH;
 	}
 	
-	
-	public static FileWriter getOutputProblematicLoopResultFileWriter(){
-		return PROBLEMATIC_LOOP_OUTPUT_RESULT_FILE_WRITER;
+	public static Path getC3ResultFile(){
+		return C3_RESULT_FILE_PATH;
 	}
 	
-	
-	public static void resetCOutputResultFile() {
-		try {		
-			C_RESULT_FILE_WRITER = new FileWriter(C_RESULT_FILE_PATH.toFile().getAbsolutePath());
-			C_RESULT_FILE_WRITER.write(RESULT_FILE_HEADER);
-			C_RESULT_FILE_WRITER.flush();
-		} catch (IOException e) {
-			System.err.println("Cannot open output log file for writing.");
-		}
-	}
-	
-	public static void resetC1OutputResultFile() {
-		try {
-			C1_RESULT_FILE_WRITER = new FileWriter(C1_RESULT_FILE_PATH.toFile().getAbsolutePath());
-			C1_RESULT_FILE_WRITER.write(RESULT_FILE_HEADER);
-			C1_RESULT_FILE_WRITER.flush();
-		} catch (IOException e) {
-			System.err.println("Cannot open output log file for writing.");
-		}
+	public static Path getProblematicLoopResultFile(){
+		return PROBLEMATIC_LOOP_OUTPUT_RESULT_FILE_PATH;
 	}
 	
-	
-	public static void resetC2OutputResultFile() {
-		try {
-			C2_RESULT_FILE_WRITER = new FileWriter(C2_RESULT_FILE_PATH.toFile().getAbsolutePath());
-			C2_RESULT_FILE_WRITER.write(RESULT_FILE_HEADER);
-			C2_RESULT_FILE_WRITER.flush();
-		} catch (IOException e) {
-			System.err.println("Cannot open output log file for writing.");
-		}
-	}
-	
-	
-	public static void resetC3OutputResultFile() {
-		try {
-			C3_RESULT_FILE_WRITER = new FileWriter(C3_RESULT_FILE_PATH.toFile().getAbsolutePath());
-			C3_RESULT_FILE_WRITER.write(RESULT_FILE_HEADER);
-			C3_RESULT_FILE_WRITER.flush();
-		} catch (IOException e) {
-			System.err.println("Cannot open output log file for writing.");
-		}
-	}
-	
-	public static void resetOutputProblematicLoopResultFile() {
-		try {
-			PROBLEMATIC_LOOP_OUTPUT_RESULT_FILE_WRITER = new FileWriter(PROBLEMATIC_LOOP_OUTPUT_RESULT_FILE_PATH.toFile().getAbsolutePath());
-			
-			PROBLEMATIC_LOOP_OUTPUT_RESULT_FILE_WRITER.write(PROBLEMATIC_LOOP_FILE_HEADER);
-			PROBLEMATIC_LOOP_OUTPUT_RESULT_FILE_WRITER.flush();
-		} catch (IOException e) {
-			System.err.println("Cannot open output log file for writing.");
-		}
-	}
-
     public static void checkOrCreatedirectory() {
     	if (!OUTPUT_DIRECTORY.toFile().exists()){
 			OUTPUT_DIRECTORY.toFile().mkdirs();
@@ -320,6 +365,70 @@ public class MemoryVerificationProperties {
 		return INTERACTIVE_VERIFICATION_GRAPHS_OUTPUT_DIRECTORY_PATH;
 	}
 	
+	public static int getLoopRecoveryParallelism(){
+		return LOOP_RECOVERY_PARALLELISM;
+	}
+	
+	public static boolean isLoopRecoveryPathCompression(){
+		return LOOP_RECOVERY_PATH_COMPRESSION;
+	}
+	
+	public static Path getLoopIndexFile(){
+		return LOOP_INDEX_FILE_PATH;
+	}
+	
+	public static Path getLoopRecoveryReportFile(){
+		return LOOP_RECOVERY_REPORT_FILE_PATH;
+	}
+	
+	public static int getFunctionContextCacheSize(){
+		return FUNCTION_CONTEXT_CACHE_SIZE;
+	}
+	
+	public static boolean isFunctionGroupedClassification(){
+		return FUNCTION_GROUPED_CLASSIFICATION;
+	}
+	
+	public static int getVerificationParallelism(){
+		return VERIFICATION_PARALLELISM;
+	}
+	
+	public static boolean isHeadlessVerification(){
+		return HEADLESS_VERIFICATION;
+	}
+	
+	public static Path getVerificationCacheFile(){
+		return VERIFICATION_CACHE_FILE_PATH;
+	}
+	
+	public static int getGraphExportParallelism(){
+		return GRAPH_EXPORT_PARALLELISM;
+	}
+	
+	public static int getGraphExportQueueCapacity(){
+		return GRAPH_EXPORT_QUEUE_CAPACITY;
+	}
+	
+	public static Path getGraphArtifactsDirectory(){
+		return GRAPH_ARTIFACTS_DIRECTORY_PATH;
+	}
+	
+	public static boolean isLoopScopedGraphs(){
+		return LOOP_SCOPED_GRAPHS;
+	}
+	
+	public static long getPCGCacheSize(){
+		return PCG_CACHE_SIZE;
+	}
+	
+	public static long getResultFlushInterval(){
+		return RESULT_FLUSH_INTERVAL;
+	}
+	
+	public static boolean isEventWrapperSummaries(){
+		return EVENT_WRAPPER_SUMMARIES;
+	}
+	
 	public static List<String> getKMallocFunctionCalls(){
 		return MEM_ALLOC_FUNCTION_CALLS;
 	}
@@ -328,6 +437,34 @@ public class MemoryVerificationProperties {
 		return MEM_FREE_FUNCTION_CALLS;
 	}
 	
+	public static List<String> getEventPairs(){
+		return EVENT_PAIRS;
+	}
+	
+	public static List<String> getSpinLockFunctionCalls(){
+		return SPIN_LOCK_FUNCTION_CALLS;
+	}
+	
+	public static List<String> getSpinUnlockFunctionCalls(){
+		return SPIN_UNLOCK_FUNCTION_CALLS;
+	}
+	
+	public static Path getSpinGraphsOutputDirectory(){
+		return SPIN_GRAPHS_OUTPUT_DIRECTORY_PATH;
+	}
+	
+	public static List<String> getMutexLockFunctionCalls(){
+		return MUTEX_LOCK_FUNCTION_CALLS;
+	}
+	
+	public static List<String> getMutexUnlockFunctionCalls(){
+		return MUTEX_UNLOCK_FUNCTION_CALLS;
+	}
+	
+	public static Path getMutexGraphsOutputDirectory(){
+		return MUTEX_GRAPHS_OUTPUT_DIRECTORY_PATH;
+	}
+	
 	public static Path getCOutputDirectory(){
 		return C_OUTPUT_DIRECTORY_PATH;
 	}
@@ -350,21 +487,6 @@ public class MemoryVerificationProperties {
 	public static String getProblematicLoopCSVHeader(){
 		return PROBLEMATIC_LOOP_FILE_HEADER;
 	}
-	public static FileWriter getOutputProblematicLoopFileWriter(){
-		return PROBLEMATIC_LOOP_OUTPUT_RESULT_FILE_WRITER;
-	}
-	public static FileWriter getOutputCFileWriter(){
-		return C_RESULT_FILE_WRITER;
-	}
-	public static FileWriter getOutputC1FileWriter(){
-		return C1_RESULT_FILE_WRITER;
-	}
-	public static FileWriter getOutputC2FileWriter(){
-		return C2_RESULT_FILE_WRITER;
-	}
-	public static FileWriter getOutputC3FileWriter(){
-		return C3_RESULT_FILE_WRITER;
-	}
 	
 	
 }
@@ -0,0 +1,181 @@
+package com.kcsl.loopmodel.algorithms;
+
+import java.util.Arrays;
+
+import com.ensoftcorp.atlas.core.db.graph.Edge;
+import com.ensoftcorp.atlas.core.db.graph.Graph;
+import com.ensoftcorp.atlas.core.db.graph.GraphElement.NodeDirection;
+import com.ensoftcorp.atlas.core.db.graph.Node;
+
+/**
+ * A dense snapshot of the control flow graph reachable from a single control
+ * flow root.
+ * <p>
+ * Nodes are numbered 0..n-1 in breadth first discovery order (the root is
+ * always 0) and the outgoing edges of each node are kept in compressed sparse
+ * row form, in the same order the graph reports them. The snapshot is meant to
+ * be reused: {@link #build(Graph, Node)} only grows the backing arrays when a
+ * larger function is seen.
+ */
+class CFGSnapshot implements OrdinalGraph {
+
+	/** The node for each ordinal */
+	Node[] nodes = new Node[16];
+
+	/** The edges of node i are edgeTargets[edgeOffsets[i]..edgeOffsets[i+1]) */
+	int[] edgeOffsets = new int[17];
+
+	/** The target ordinal of each edge */
+	int[] edgeTargets = new int[16];
+
+	/** The edge for each edge index */
+	Edge[] edges = new Edge[16];
+
+	int nodeCount;
+	int edgeCount;
+
+	private final NodeOrdinals ordinals = new NodeOrdinals();
+
+	/**
+	 * Replaces the contents of this snapshot with the control flow graph
+	 * reachable from the given root.
+	 *
+	 * @param cfContextG
+	 * @param root
+	 */
+	void build(Graph cfContextG, Node root) {
+		clear();
+		ordinalOf(root);
+		for (int i = 0; i < nodeCount; i++) {
+			edgeOffsets[i] = edgeCount;
+			for (Edge edge : cfContextG.edges(nodes[i], NodeDirection.OUT)) {
+				int target = ordinalOf(edge.to());
+				if (edgeCount == edgeTargets.length) {
+					edgeTargets = Arrays.copyOf(edgeTargets, edgeCount * 2);
+					edges = Arrays.copyOf(edges, edgeCount * 2);
+				}
+				edgeTargets[edgeCount] = target;
+				edges[edgeCount] = edge;
+				edgeCount++;
+			}
+		}
+		edgeOffsets[nodeCount] = edgeCount;
+	}
+
+	@Override
+	public int nodeCount() {
+		return nodeCount;
+	}
+
+	@Override
+	public int[] edgeOffsets() {
+		return edgeOffsets;
+	}
+
+	@Override
+	public int[] edgeTargets() {
+		return edgeTargets;
+	}
+
+	/**
+	 * Returns the ordinal of the given node or -1 if the node is not part of
+	 * this snapshot.
+	 *
+	 * @param node
+	 * @return
+	 */
+	int indexOf(Node node) {
+		return ordinals.get(node);
+	}
+
+	private int ordinalOf(Node node) {
+		int ordinal = ordinals.get(node);
+		if (ordinal < 0) {
+			ordinal = nodeCount++;
+			if (ordinal == nodes.length) {
+				nodes = Arrays.copyOf(nodes, ordinal * 2);
+				edgeOffsets = Arrays.copyOf(edgeOffsets, ordinal * 2 + 1);
+			}
+			nodes[ordinal] = node;
+			ordinals.put(node, ordinal);
+		}
+		return ordinal;
+	}
+
+	private void clear() {
+		ordinals.clear();
+		Arrays.fill(nodes, 0, nodeCount, null);
+		Arrays.fill(edges, 0, edgeCount, null);
+		nodeCount = 0;
+		edgeCount = 0;
+	}
+
+	/**
+	 * An open addressing map from nodes to ordinals that does not box and can
+	 * be cleared in time proportional to its size rather than its capacity.
+	 */
+	private static class NodeOrdinals {
+		private Node[] keys = new Node[32];
+		private int[] values = new int[32];
+		private int[] usedSlots = new int[16];
+		private int size;
+
+		int get(Node node) {
+			int mask = keys.length - 1;
+			int slot = mix(node.hashCode()) & mask;
+			Node key;
+			while ((key = keys[slot]) != null) {
+				if (key.equals(node)) {
+					return values[slot];
+				}
+				slot = (slot + 1) & mask;
+			}
+			return -1;
+		}
+
+		void put(Node node, int value) {
+			if ((size + 1) * 2 > keys.length) {
+				rehash(keys.length * 2);
+			}
+			int mask = keys.length - 1;
+			int slot = mix(node.hashCode()) & mask;
+			while (keys[slot] != null) {
+				slot = (slot + 1) & mask;
+			}
+			keys[slot] = node;
+			values[slot] = value;
+			if (size == usedSlots.length) {
+				usedSlots = Arrays.copyOf(usedSlots, size * 2);
+			}
+			usedSlots[size++] = slot;
+		}
+
+		void clear() {
+			for (int i = 0; i < size; i++) {
+				keys[usedSlots[i]] = null;
+			}
+			size = 0;
+		}
+
+		private void rehash(int capacity) {
+			Node[] oldKeys = keys;
+			int[] oldValues = values;
+			int[] oldSlots = usedSlots;
+			int oldSize = size;
+			keys = new Node[capacity];
+			values = new int[capacity];
+			size = 0;
+			usedSlots = new int[Math.max(16, oldSlots.length)];
+			for (int i = 0; i < oldSize; i++) {
+				int slot = oldSlots[i];
+				put(oldKeys[slot], oldValues[slot]);
+			}
+		}
+
+		private static int mix(int hash) {
+			hash *= 0x9E3779B9;
+			return hash ^ (hash >>> 16);
+		}
+	}
+
+}
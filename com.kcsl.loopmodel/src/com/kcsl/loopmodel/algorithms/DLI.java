@@ -3,17 +3,19 @@ package com.kcsl.loopmodel.algorithms;
 import static com.ensoftcorp.atlas.core.script.Common.resolve;
 import static com.ensoftcorp.atlas.core.script.Common.universe;
 
-import java.lang.Thread.State;
-import java.util.ArrayDeque;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.Deque;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Stack;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.NullProgressMonitor;
@@ -22,14 +24,10 @@ import com.ensoftcorp.atlas.core.db.graph.Edge;
 import com.ensoftcorp.atlas.core.db.graph.Graph;
 import com.ensoftcorp.atlas.core.db.graph.GraphElement.NodeDirection;
 import com.ensoftcorp.atlas.core.db.graph.Node;
-import com.ensoftcorp.atlas.core.db.graph.operation.ForwardGraph;
 import com.ensoftcorp.atlas.core.db.set.AtlasHashSet;
-import com.ensoftcorp.atlas.core.db.set.AtlasNodeHashSet;
 import com.ensoftcorp.atlas.core.db.set.AtlasSet;
-import com.ensoftcorp.atlas.core.db.set.SingletonAtlasSet;
 import com.ensoftcorp.atlas.core.log.Log;
 import com.ensoftcorp.atlas.core.query.Q;
-import com.ensoftcorp.atlas.core.script.Common;
 import com.ensoftcorp.atlas.core.xcsg.XCSG;
 import com.ensoftcorp.open.commons.utilities.NodeSourceCorrespondenceSorter;
 import com.ensoftcorp.open.commons.xcsg.Toolbox;
@@ -82,14 +80,17 @@ public class DLI implements Runnable {
 		public static final String NATURAL_LOOP = "NATURAL_LOOP";
 
 		/**
-		 * Integer attribute identifier, matches the LOOP_HEADER_ID for the
+		 * String attribute identifier, matches the LOOP_HEADER_ID for the
 		 * innermost loop header of this node.
 		 */
 		@XCSG_Extension
 		public static final String LOOP_MEMBER_ID = "LOOP_MEMBER_ID";
 
 		/**
-		 * Integer attribute identifier for this loop header.
+		 * String attribute identifier for this loop header, of the form
+		 * <code>&lt;hexhash&gt;:&lt;index&gt;</code>: a 16 digit hex hash
+		 * of the containing function followed by the index of the loop in
+		 * the source order of the function's loops. Stable across runs.
 		 */
 		@XCSG_Extension
 		public static final String LOOP_HEADER_ID = "LOOP_HEADER_ID";
@@ -119,7 +120,105 @@ public class DLI implements Runnable {
 	}
 
 	public static void recoverLoops(IProgressMonitor monitor) {
-		_recoverLoops(monitor);
+		recoverLoops(monitor, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Identify all loops in the universe graph using the given number of worker
+	 * threads. A non-positive <code>parallelism</code> uses one worker per
+	 * available processor.
+	 * 
+	 * @param monitor
+	 * @param parallelism
+	 */
+	public static void recoverLoops(IProgressMonitor monitor, int parallelism) {
+		recoverLoops(monitor, parallelism, null);
+	}
+
+	/**
+	 * Identify all loops in the universe graph, reusing the loops stored in
+	 * the given index file for every function whose CFG has not changed since
+	 * the index was written. The index is rewritten afterwards if any function
+	 * had to be analyzed.
+	 * 
+	 * @param monitor
+	 * @param parallelism
+	 * @param loopIndexFile The loop index file or null to not use an index
+	 */
+	public static void recoverLoops(IProgressMonitor monitor, int parallelism, Path loopIndexFile) {
+		recoverLoops(monitor, parallelism, loopIndexFile, false);
+	}
+
+	/**
+	 * Identify all loops in the universe graph as in
+	 * {@link #recoverLoops(IProgressMonitor, int, Path)}. With
+	 * <code>pathCompression</code> the header chains of irreducible loops are
+	 * walked with path compression, which finds the same loops in less time
+	 * on goto heavy functions.
+	 * 
+	 * @param monitor
+	 * @param parallelism
+	 * @param loopIndexFile The loop index file or null to not use an index
+	 * @param pathCompression
+	 */
+	public static void recoverLoops(IProgressMonitor monitor, int parallelism, Path loopIndexFile, boolean pathCompression) {
+		if (parallelism <= 0) {
+			parallelism = Runtime.getRuntime().availableProcessors();
+		}
+		_recoverLoops(monitor, parallelism, loopIndexFile, pathCompression);
+	}
+
+	/**
+	 * Forgets all previously analyzed control flow roots, so the next call to
+	 * {@link #recoverLoops()} analyzes the whole universe again.
+	 */
+	public static void clearCache() {
+		synchronized (cache) {
+			cache.clear();
+			loopForest = null;
+		}
+	}
+
+	/** The number of slowest functions logged after each run */
+	private static final int REPORT_TOP_N = 10;
+
+	/** The control flow roots analyzed so far */
+	private static final LoopRecoveryCache cache = new LoopRecoveryCache();
+
+	/** The currently mapped loop index, guarded by the cache */
+	private static LoopIndex mappedLoopIndex;
+
+	/** The loop forest of the cached loops, built on demand and guarded by the cache */
+	private static LoopForest loopForest;
+
+	/** The report of the most recent run, guarded by the cache */
+	private static LoopRecoveryReport lastReport;
+
+	/**
+	 * Returns the per function statistics of the most recent call to
+	 * {@link #recoverLoops()} that recovered the loops of at least one root,
+	 * or null if loops were never recovered.
+	 * 
+	 * @return
+	 */
+	public static LoopRecoveryReport getLastReport() {
+		synchronized (cache) {
+			return lastReport;
+		}
+	}
+
+	/**
+	 * Returns the loop nesting forest of all the loops recovered so far.
+	 * 
+	 * @return
+	 */
+	public static LoopForest getLoopForest() {
+		synchronized (cache) {
+			if (loopForest == null) {
+				loopForest = new LoopForest(cache.structures());
+			}
+			return loopForest;
+		}
 	}
 
 	/**
@@ -129,158 +228,452 @@ public class DLI implements Runnable {
 	 * 
 	 * NOTE: Handles both natural and irreducible loops
 	 * 
+	 * Roots that were already analyzed and whose CFG fingerprint did not
+	 * change since are skipped, so repeated calls only pay for a single pass
+	 * over the control flow graph.
+	 * 
 	 * @return
 	 */
-	private static void _recoverLoops(IProgressMonitor monitor) {
-		try {
-			// find the work to be done
-			Q u = universe();
-			Graph cfContextG = resolve(null, u.edges(XCSG.ControlFlow_Edge, XCSG.ExceptionalControlFlow_Edge).eval());
-			AtlasSet<Node> cfRoots = u.nodes(XCSG.controlFlowRoot).eval().nodes();
-			int work = (int) cfRoots.size();
-			ArrayList<Node> rootList = new ArrayList<Node>(work);
-			for (Node root : cfRoots){
-				rootList.add(root);
+	private static void _recoverLoops(IProgressMonitor monitor, int parallelism, Path loopIndexFile, boolean pathCompression) {
+		synchronized (cache) {
+			long start = System.nanoTime();
+			List<DLI> analyzers = new ArrayList<DLI>();
+			try {
+				if (loopIndexFile != null && (mappedLoopIndex == null || !mappedLoopIndex.getFile().equals(loopIndexFile))) {
+					mappedLoopIndex = loadLoopIndex(loopIndexFile);
+				} else if (loopIndexFile == null) {
+					mappedLoopIndex = null;
+				}
+
+				// find the work to be done
+				Q u = universe();
+				Graph cfContextG = resolve(null, u.edges(XCSG.ControlFlow_Edge, XCSG.ExceptionalControlFlow_Edge).eval());
+				AtlasSet<Node> cfRoots = u.nodes(XCSG.controlFlowRoot).eval().nodes();
+				final Map<Node, FunctionSummary> summaries = summarizeFunctions(cfContextG);
+				boolean changed = cache.retainAll(cfRoots);
+				if (changed) {
+					loopForest = null;
+				}
+				ArrayList<Node> rootList = new ArrayList<Node>();
+				for (Node root : cfRoots){
+					if (getContainer(root) == null) {
+						summaries.put(root, summarizeRoot(cfContextG, root));
+					}
+					if (!cache.isCurrent(root, summary(summaries, root).fingerprint)) {
+						rootList.add(root);
+					}
+				}
+				int work = rootList.size();
+				if (work == 0) {
+					if (loopIndexFile != null && (changed || mappedLoopIndex == null)) {
+						saveLoopIndex(loopIndexFile);
+					}
+					return;
+				}
+
+				// CFG sizes are heavily skewed, so hand out the largest functions first
+				// and let idle workers pick up the small ones at the end
+				Collections.sort(rootList, new Comparator<Node>() {
+					@Override
+					public int compare(Node a, Node b) {
+						return Integer.compare(summary(summaries, b).size, summary(summaries, a).size);
+					}
+				});
+
+				long[] fingerprints = new long[work];
+				for (int i = 0; i < work; i++) {
+					fingerprints[i] = summary(summaries, rootList.get(i)).fingerprint;
+				}
+
+				monitor.beginTask("Identify Local Loops", rootList.size());
+
+				// workers pull the next largest root from the shared work list
+				AtomicInteger nextRoot = new AtomicInteger();
+				int workers = Math.max(1, Math.min(parallelism, work));
+				ForkJoinPool pool = new ForkJoinPool(workers);
+				try {
+					List<Future<?>> tasks = new ArrayList<Future<?>>(workers);
+					for (int i = 0; i < workers; ++i) {
+						DLI analyzer = new DLI(monitor, cfContextG, rootList, fingerprints, nextRoot, mappedLoopIndex, pathCompression);
+						analyzers.add(analyzer);
+						tasks.add(pool.submit(analyzer));
+					}
+
+					// wait for workers to finish
+					for (Future<?> task : tasks) {
+						try {
+							task.get();
+						} catch (InterruptedException e) {
+							Log.warning("Caught thread interruption exception", e);
+							Thread.currentThread().interrupt();
+							return;
+						} catch (ExecutionException e) {
+							Log.error("Problem in loop analyzer worker", e.getCause());
+						}
+					}
+				} finally {
+					pool.shutdown();
+				}
+
+				// modify universe graph
+				loopForest = null;
+				for (DLI analyzer : analyzers) {
+					for (LoopStructure structure : analyzer.results) {
+						LoopStructure previous = cache.get(structure.root);
+						if (previous != null) {
+							remove(previous);
+						}
+						apply(structure);
+						cache.put(structure.root, summary(summaries, structure.root).fingerprint, structure);
+					}
+				}
+
+				if (loopIndexFile != null) {
+					saveLoopIndex(loopIndexFile);
+				}
+			} finally {
+				List<LoopRecoveryReport.FunctionStatistics> statistics = new ArrayList<LoopRecoveryReport.FunctionStatistics>();
+				for (DLI analyzer : analyzers) {
+					statistics.addAll(analyzer.statistics);
+				}
+				// calls finding every root current keep the report of the last recovery
+				if (!statistics.isEmpty()) {
+					lastReport = new LoopRecoveryReport(statistics, System.nanoTime() - start);
+					Log.info(lastReport.summarize(REPORT_TOP_N));
+				}
+				monitor.done();
 			}
+		}
+	}
 
-			monitor.beginTask("Identify Local Loops", rootList.size());
-
-			// assign the work to worker threads
-			int procs = Runtime.getRuntime().availableProcessors();
-			Thread[] threads = new Thread[procs];
-			int workPerProc = work / procs;
-			int remainder = work % procs;
-			for (int i = 0; i < procs; ++i) {
-				int firstInclusive = workPerProc * i + Math.min(remainder, i);
-				int lastExclusive = firstInclusive + workPerProc + (i < remainder ? 1 : 0);
-				threads[i] = new Thread(new DLI(monitor, cfContextG, rootList.subList(firstInclusive, lastExclusive)));
-				threads[i].start();
+	/**
+	 * Writes the loops recovered for a single control flow root into the
+	 * universe graph. This is only called from a single thread after all the
+	 * workers are done.
+	 * 
+	 * @param structure
+	 */
+	private static void apply(LoopStructure structure) {
+		String[] loopHeaderIDs = structure.loopHeaderIDs;
+		for (int i = 0; i < structure.loopHeaders.length; i++) {
+			Node loopHeader = structure.loopHeaders[i];
+			String id = loopHeaderIDs[i];
+			loopHeader.tag("DLI.Loop");
+
+			loopHeader.putAttr(CFGNode.LOOP_HEADER_ID, id);
+			if (structure.irreducible[i]) {
+				loopHeader.tag(CFGNode.IRREDUCIBLE_LOOP);
+			} else {
+				loopHeader.tag(CFGNode.NATURAL_LOOP);
 			}
+		}
 
-			// wait for worker threads to finish
-			int waitIndex = 0;
-			while (waitIndex < threads.length) {
-				if (!State.TERMINATED.equals(threads[waitIndex].getState())) {
-					try {
-						threads[waitIndex].join();
-					} catch (InterruptedException e) {
-						Log.warning("Caught thread interruption exception", e);
+		// the existing loop children of each loop header, looked up once per
+		// header instead of querying the universe for every member
+		AtlasSet<?>[] loopChildren = new AtlasSet<?>[structure.loopHeaders.length];
+
+		// Temporary fix to make Loop Catalog work with source code
+		// TODO: A version needs to be created for Java source code
+		for (int i = 0; i < structure.members.length; i++) {
+			Node cfgNode = structure.members[i];
+			int header = structure.memberLoopHeaders[i];
+			Node loopHeader = structure.loopHeaders[header];
+			cfgNode.putAttr(CFGNode.LOOP_MEMBER_ID, loopHeaderIDs[header]);
+			// loop headers are overwritten with their own depth below
+			cfgNode.putAttr(Toolbox.loopDepth, structure.loopDepths[header]);
+			if(loopHeader.taggedWith(XCSG.Language.C) || loopHeader.taggedWith(XCSG.Language.Jimple)) {
+				if (loopChildren[header] == null) {
+					AtlasSet<Node> children = new AtlasHashSet<Node>();
+					for (Edge loopChild : loopHeader.out(XCSG.LoopChild)) {
+						children.add(loopChild.to());
 					}
-				} else {
-					waitIndex++;
+					loopChildren[header] = children;
+				}
+				if(!loopChildren[header].contains(cfgNode)) {
+					Edge edge = Graph.U.createEdge(loopHeader, cfgNode);
+					edge.tag(XCSG.LoopChild);
+				}
+			}
+		}
+
+		// mark loopDepth; loopDepth starts at 1 for outermost Loops
+		// and children are at the same depth as their loop headers
+		// (unless the child is a loop header in which case the depth is +1)
+		for (int i = 0; i < structure.loopHeaders.length; i++) {
+			structure.loopHeaders[i].putAttr(Toolbox.loopDepth, structure.loopDepths[i]);
+		}
+
+		for (Node reentryNode : structure.reentryNodes) {
+			reentryNode.tag(CFGNode.LOOP_REENTRY_NODE);
+		}
+
+		for (Edge reentryEdge : structure.reentryEdges) {
+			reentryEdge.tag(CFGEdge.LOOP_REENTRY_EDGE);
+		}
+
+		for (Edge loopbackEdge : structure.loopbackEdges) {
+			loopbackEdge.tag("DLI.LoopBackEdge");
+		}
+	}
+
+	/**
+	 * Removes the tags, attributes and LoopChild edges written by
+	 * {@link #apply(LoopStructure)} for a root that is about to be analyzed
+	 * again, so members that left a loop are no longer its children.
+	 * 
+	 * @param structure
+	 */
+	private static void remove(LoopStructure structure) {
+		for (int i = 0; i < structure.members.length; i++) {
+			Node member = structure.members[i];
+			member.removeAttr(CFGNode.LOOP_MEMBER_ID);
+			member.removeAttr(Toolbox.loopDepth);
+			Node loopHeader = structure.loopHeaders[structure.memberLoopHeaders[i]];
+			AtlasSet<Edge> loopChildEdges = new AtlasHashSet<Edge>();
+			for (Edge loopChild : member.in(XCSG.LoopChild)) {
+				if (loopChild.from().equals(loopHeader)) {
+					loopChildEdges.add(loopChild);
+				}
+			}
+			for (Edge loopChild : loopChildEdges) {
+				Graph.U.delete(loopChild);
+			}
+		}
+		for (Node loopHeader : structure.loopHeaders) {
+			loopHeader.untag("DLI.Loop");
+			loopHeader.untag(CFGNode.IRREDUCIBLE_LOOP);
+			loopHeader.untag(CFGNode.NATURAL_LOOP);
+			loopHeader.removeAttr(CFGNode.LOOP_HEADER_ID);
+			loopHeader.removeAttr(Toolbox.loopDepth);
+		}
+		for (Node reentryNode : structure.reentryNodes) {
+			reentryNode.untag(CFGNode.LOOP_REENTRY_NODE);
+		}
+		for (Edge reentryEdge : structure.reentryEdges) {
+			reentryEdge.untag(CFGEdge.LOOP_REENTRY_EDGE);
+		}
+		for (Edge loopbackEdge : structure.loopbackEdges) {
+			loopbackEdge.untag("DLI.LoopBackEdge");
+		}
+	}
+
+	private static LoopIndex loadLoopIndex(Path loopIndexFile) {
+		try {
+			return LoopIndex.load(loopIndexFile);
+		} catch (IOException e) {
+			Log.warning("Unable to load loop index " + loopIndexFile, e);
+			return null;
+		}
+	}
+
+	private static void saveLoopIndex(Path loopIndexFile) {
+		// the new index goes to the slot the current one does not map, then the new slot is mapped
+		LoopIndex current = mappedLoopIndex != null && mappedLoopIndex.getFile().equals(loopIndexFile) ? mappedLoopIndex : null;
+		mappedLoopIndex = null;
+		try {
+			cache.write(loopIndexFile, current);
+		} catch (IOException e) {
+			Log.warning("Unable to save loop index " + loopIndexFile, e);
+		}
+		mappedLoopIndex = loadLoopIndex(loopIndexFile);
+	}
+
+	/**
+	 * The estimated size and a fingerprint of the CFG of a function
+	 */
+	private static class FunctionSummary {
+		int size;
+		long fingerprint;
+	}
+
+	/**
+	 * Summarizes each function CFG in a single pass over the control flow
+	 * graph. The size is the number of control flow nodes and edges, which is
+	 * only used to order the work. The fingerprint is an order independent
+	 * hash of the addresses of the nodes and edges, so any change to the
+	 * function after a re-index changes it.
+	 * 
+	 * @param cfContextG
+	 * @return A map from the containing function to its summary
+	 */
+	private static Map<Node, FunctionSummary> summarizeFunctions(Graph cfContextG) {
+		Map<Node, FunctionSummary> summaries = new HashMap<Node, FunctionSummary>();
+		for (Node cfNode : cfContextG.nodes()) {
+			Node function = getContainer(cfNode);
+			if (function == null) {
+				continue;
+			}
+			FunctionSummary summary = summaries.get(function);
+			if (summary == null) {
+				summary = new FunctionSummary();
+				summaries.put(function, summary);
+			}
+			long node = hash(cfNode.address().toAddressString());
+			summary.size++;
+			summary.fingerprint += mix(node);
+			for (Edge cfEdge : cfContextG.edges(cfNode, NodeDirection.OUT)) {
+				summary.size++;
+				summary.fingerprint += mix(node * 31 + hash(cfEdge.to().address().toAddressString()));
+			}
+		}
+		return summaries;
+	}
+
+	/**
+	 * Summarizes the CFG of a root without a containing function from the
+	 * nodes and edges reachable from the root, the same way
+	 * {@link #summarizeFunctions(Graph)} summarizes function CFGs.
+	 * 
+	 * @param cfContextG
+	 * @param root
+	 * @return
+	 */
+	private static FunctionSummary summarizeRoot(Graph cfContextG, Node root) {
+		FunctionSummary summary = new FunctionSummary();
+		AtlasSet<Node> visited = new AtlasHashSet<Node>();
+		List<Node> stack = new ArrayList<Node>();
+		visited.add(root);
+		stack.add(root);
+		while (!stack.isEmpty()) {
+			Node cfNode = stack.remove(stack.size() - 1);
+			long node = hash(cfNode.address().toAddressString());
+			summary.size++;
+			summary.fingerprint += mix(node);
+			for (Edge cfEdge : cfContextG.edges(cfNode, NodeDirection.OUT)) {
+				summary.size++;
+				summary.fingerprint += mix(node * 31 + hash(cfEdge.to().address().toAddressString()));
+				if (visited.add(cfEdge.to())) {
+					stack.add(cfEdge.to());
 				}
 			}
-		} finally {
-			monitor.done();
 		}
+		return summary;
+	}
+
+	/**
+	 * Returns the summary of the given root, the summary of its containing
+	 * function or, for a root without one, the summary of the root itself
+	 */
+	private static FunctionSummary summary(Map<Node, FunctionSummary> summaries, Node root) {
+		Node function = getContainer(root);
+		return summaries.get(function == null ? root : function);
+	}
+
+	static Node getContainer(Node node) {
+		Edge containsEdge = node.in(XCSG.Contains).one();
+		return containsEdge == null ? null : containsEdge.from();
+	}
+
+	/**
+	 * A 64 bit FNV-1a hash of the given string
+	 */
+	public static long hash(String value) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < value.length(); i++) {
+			hash ^= value.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	/**
+	 * Spreads the bits of the given value, so that sums of mixed values are
+	 * unlikely to collide
+	 */
+	public static long mix(long value) {
+		value ^= value >>> 33;
+		value *= 0xff51afd7ed558ccdL;
+		value ^= value >>> 33;
+		value *= 0xc4ceb9fe1a85ec53L;
+		return value ^ (value >>> 33);
 	}
 
-	private AtlasSet<Node> traversed, reentryNodes, irreducible;
-	private AtlasSet<Edge> reentryEdges, loopbacks;
 	private Graph cfContextG;
 
-	/** The node's position in the DFSP (Depth-first search path) */
-	private Map<Node, Integer> dfsp;
-	private Map<Node, Node> innermostLoopHeaders;
+	/** A reusable ordinal snapshot of the CFG currently being analyzed */
+	private CFGSnapshot cfg = new CFGSnapshot();
+
+	/** The loop identification workspace of this worker */
+	private LoopDFS dfs;
+
+	/** Scratch space for recording results, indexed by node ordinal */
+	private long[] loopHeaderBits = new long[0];
+
+	/** The index of each loop header in the sorted loop headers of the current function */
+	private int[] loopHeaderIndices = new int[0];
+
+	/** The loops found by this worker, written to the universe once all workers are done */
+	private List<LoopStructure> results = new ArrayList<LoopStructure>();
+
+	/** The statistics of each root analyzed by this worker */
+	private List<LoopRecoveryReport.FunctionStatistics> statistics = new ArrayList<LoopRecoveryReport.FunctionStatistics>();
+
 	private List<Node> cfRoots;
-	private static int idGenerator;
-	private static Object idGeneratorLock = new Object();
+	private long[] fingerprints;
+	private AtomicInteger nextRoot;
+	private LoopIndex loopIndex;
 	private IProgressMonitor monitor;
 
-	private DLI(IProgressMonitor monitor, Graph cfContextG, List<Node> cfRoots) {
+	private DLI(IProgressMonitor monitor, Graph cfContextG, List<Node> cfRoots, long[] fingerprints, AtomicInteger nextRoot, LoopIndex loopIndex, boolean pathCompression) {
+		this.dfs = new LoopDFS(pathCompression);
 		this.monitor = monitor;
 		this.cfContextG = cfContextG;
 		this.cfRoots = cfRoots;
-		traversed = new AtlasHashSet<Node>();
-		reentryNodes = new AtlasHashSet<Node>();
-		reentryEdges = new AtlasHashSet<Edge>();
-		irreducible = new AtlasHashSet<Node>();
-		loopbacks = new AtlasHashSet<Edge>();
-		dfsp = new HashMap<Node, Integer>();
-		innermostLoopHeaders = new HashMap<Node, Node>();
+		this.fingerprints = fingerprints;
+		this.nextRoot = nextRoot;
+		this.loopIndex = loopIndex;
 	}
 
 	@Override
 	public void run() {
 		// compute individually on a per-function basis
-		for (Node root : cfRoots) {
+		int index;
+		while ((index = nextRoot.getAndIncrement()) < cfRoots.size()) {
+			if (monitor.isCanceled()){
+				return;
+			}
+			Node root = cfRoots.get(index);
 			try {
-				// clear data from previous function
-				reentryNodes.clear();
-				reentryEdges.clear();
-				irreducible.clear();
-				traversed.clear();
-				innermostLoopHeaders.clear();
-				loopbacks.clear();
-				dfsp.clear();
-
-				for (Node node : new ForwardGraph(cfContextG, new SingletonAtlasSet<Node>(root)).nodes()) {
-					dfsp.put(node, 0);
-				}
-
-				// run loop identification algorithm
-				
-				// a recursive strategy may overflow the call stack in some cases
-				// so not using the loopDFSRecursive(root, 1) implementation
-				// better to use an equivalent iterative strategy
-				loopDFSIterative(root, 1); 
-
-				// modify universe graph
-				Collection<Node> loopHeaders = innermostLoopHeaders.values();
-				
-				ArrayList<Node> sortedLoopHeaders = new ArrayList<Node>(loopHeaders.size());
-				for(Node loopHeader : loopHeaders){
-					sortedLoopHeaders.add(loopHeader);
-				}
-				Collections.sort(sortedLoopHeaders, new NodeSourceCorrespondenceSorter());
-
-				Map<Node, String> loopHeaderToID = new HashMap<Node, String>(loopHeaders.size());
-
-				synchronized (idGeneratorLock) {
-					for (Node loopHeader : sortedLoopHeaders) {
-						int id = idGenerator++;
-						loopHeaderToID.put(loopHeader, Integer.toString(id));
-						loopHeader.tag("DLI.Loop");
-
-						loopHeader.putAttr(CFGNode.LOOP_HEADER_ID, Integer.toString(id));
-						if (irreducible.contains(loopHeader)) {
-							loopHeader.tag(CFGNode.IRREDUCIBLE_LOOP);
-						} else {
-							loopHeader.tag(CFGNode.NATURAL_LOOP);
+				// snapshot the function and clear data from previous function
+				long start = System.nanoTime();
+				cfg.build(cfContextG, root);
+				long snapshotted = System.nanoTime();
+
+				// reuse the loops from the index if the function did not change
+				LoopStructure structure = null;
+				if (loopIndex != null) {
+					int record = loopIndex.find(fingerprints[index]);
+					if (record >= 0) {
+						try {
+							structure = loopIndex.decode(record, cfg, root);
+						} catch (RuntimeException e) {
+							// a damaged record is a miss, the loops are recovered again
+							Log.warning("Unable to decode loop index record for CFG root:\n" + root, e);
+							structure = null;
 						}
 					}
 				}
-				
-				// Temporary fix to make Loop Catalog work with source code
-				// TODO: A version needs to be created for Java source code
-				for (Node cfgNode : innermostLoopHeaders.keySet()) {
-					Node loopHeader = innermostLoopHeaders.get(cfgNode);
-					cfgNode.putAttr(CFGNode.LOOP_MEMBER_ID, loopHeaderToID.get(loopHeader));
-					if(loopHeader.taggedWith(XCSG.Language.C)) {
-						if(universe().edges(XCSG.LoopChild).betweenStep(Common.toQ(loopHeader), Common.toQ(cfgNode)).eval().edges().isEmpty()) {
-							Edge edge = Graph.U.createEdge(loopHeader, cfgNode);
-							edge.tag(XCSG.LoopChild);
-						}					
-					}
-					if(loopHeader.taggedWith(XCSG.Language.Jimple)) {
-						Edge edge = Graph.U.createEdge(loopHeader, cfgNode);
-						edge.tag(XCSG.LoopChild);
-					}
-				}
 
-				for (Node reentryNode : reentryNodes) {
-					reentryNode.tag(CFGNode.LOOP_REENTRY_NODE);
+				boolean fromIndex = structure != null;
+				long tagLheadSteps = 0;
+				if (structure == null) {
+					// run loop identification algorithm
+					dfs.run(cfg, 0);
+					tagLheadSteps = dfs.tagLheadSteps;
+					structure = snapshotResults(root);
 				}
+				long finished = System.nanoTime();
 
-				for (Edge reentryEdge : reentryEdges) {
-					reentryEdge.tag(CFGEdge.LOOP_REENTRY_EDGE);
+				int irreducibleLoopCount = 0;
+				for (boolean irreducibleLoop : structure.irreducible) {
+					if (irreducibleLoop) {
+						irreducibleLoopCount++;
+					}
 				}
+				statistics.add(new LoopRecoveryReport.FunctionStatistics(root, snapshotted - start, finished - snapshotted,
+						cfg.nodeCount, cfg.edgeCount, structure.loopHeaders.length, irreducibleLoopCount, tagLheadSteps, fromIndex));
 
-				for (Edge loopbackEdge : loopbacks) {
-					loopbackEdge.tag("DLI.LoopBackEdge");
-				}
-				
-				recordLoopDepth(sortedLoopHeaders);
+				results.add(structure);
 				
 			} catch (Throwable t) {
 				Log.error("Problem in loop analyzer thread for CFG root:\n" + root, t);
@@ -293,259 +686,133 @@ public class DLI implements Runnable {
 				monitor.worked(1);
 			}
 		}
-		System.out.println("BackEdges: "+ loopbacks.size());
-	}
-
-	private void recordLoopDepth(ArrayList<Node> loopHeaders) {
-		// mark loopDepth; loopDepth starts at 1 for outermost Loops
-		// and children are at the same depth as their loop headers
-		// (unless the child is a loop header in which case the depth is +1)
-		
-		AtlasSet<Node> level1Headers = new AtlasNodeHashSet();
-		for (Node loopHeader : loopHeaders) {
-			if (!loopHeader.hasAttr(CFGNode.LOOP_MEMBER_ID)) {
-				level1Headers.add(loopHeader);
-			}
-		}
-		AtlasSet<Node> processedLoops = new AtlasHashSet<Node>();
-		Stack<LoopLevel> loopLevels = new Stack<LoopLevel>();
-		for (Node loopHeader : level1Headers) {
-			loopLevels.push(new LoopLevel(loopHeader, 1));
-		}
-		while(!loopLevels.isEmpty()) {
-			LoopLevel loopLevel = loopLevels.pop();
-			Node loopHeader = loopLevel.getLoopHeader();
-			int depth = loopLevel.getDepth();
-			loopHeader.putAttr(Toolbox.loopDepth, depth);
-			processedLoops.add(loopHeader);
-			AtlasSet<Edge> loopChildren = loopHeader.out(XCSG.LoopChild);
-			for (Edge loopChild : loopChildren) {
-				Node member = loopChild.to();
-				if (member.taggedWith(XCSG.Loop)) {
-					if(!processedLoops.contains(member)) {
-						// this is to prevent infinite traversals
-						loopLevels.push(new LoopLevel(member, (depth+1)));
-					}
-				} else {
-					member.putAttr(Toolbox.loopDepth, depth);
-				}
-			}
-		}
-	}
-	
-	private static class LoopLevel {
-		private int depth;
-		private Node loopHeader;
-		public LoopLevel(Node loopHeader, int depth) {
-			this.loopHeader = loopHeader;
-			this.depth = depth;
-		}
-		public int getDepth() {
-			return depth;
-		}
-		public Node getLoopHeader() {
-			return loopHeader;
-		}
 	}
 
 	/**
-	 * Recursively traverse the current node, returning its innermost loop
-	 * header
+	 * Records the loops found for the current function in terms of graph
+	 * elements, since the workspace is reused for the next function.
 	 * 
-	 * @param b0
-	 * @param position
+	 * @param root
 	 * @return
 	 */
-	@SuppressWarnings("unused")
-	private void loopDFSRecursive(Node b0, int position) {
-		traversed.add(b0);
-		dfsp.put(b0, position);
-
-		for (Edge cfgEdge : cfContextG.edges(b0, NodeDirection.OUT)) {
-			Node b = cfgEdge.to();
-
-			if (!traversed.contains(b)) {
-				// Paper Case A
-				// new
-				loopDFSRecursive(b, position + 1);
-				Node nh = innermostLoopHeaders.get(b);
-				tag_lhead(b0, nh);
-			} else {
-				if (dfsp.get(b) > 0) {
-					// Paper Case B
-					// Mark b as a loop header
-					loopbacks.add(cfgEdge);
-					tag_lhead(b0, b);
-				} else {
-					Node h = innermostLoopHeaders.get(b);
-					if (h == null) {
-						// Paper Case C
-						// do nothing
-						continue;
-					}
+	private LoopStructure snapshotResults(Node root) {
+		int[] innermostLoopHeaders = dfs.innermostLoopHeaders;
+		if (loopHeaderIndices.length < cfg.nodeCount) {
+			loopHeaderIndices = new int[Math.max(cfg.nodeCount, loopHeaderIndices.length * 2)];
+			loopHeaderBits = new long[(loopHeaderIndices.length + 63) >>> 6];
+		} else {
+			Arrays.fill(loopHeaderBits, 0, (cfg.nodeCount + 63) >>> 6, 0L);
+		}
 
-					if (dfsp.get(h) > 0) {
-						// Paper Case D
-						// h in DFSP(b0)
-						tag_lhead(b0, h);
-					} else {
-						// Paper Case E
-						// h not in DFSP(b0)
-						reentryNodes.add(b);
-						reentryEdges.add(cfgEdge);
-						irreducible.add(h);
-
-						while ((h = innermostLoopHeaders.get(h)) != null) {
-							if (dfsp.get(h) > 0) {
-								tag_lhead(b0, h);
-								break;
-							}
-							irreducible.add(h);
-						}
-					}
+		ArrayList<Node> sortedLoopHeaders = new ArrayList<Node>();
+		int memberCount = 0;
+		int reentryNodeCount = 0;
+		for (int node = 0; node < cfg.nodeCount; node++) {
+			if (LoopDFS.get(dfs.reentryNodes, node)) {
+				reentryNodeCount++;
+			}
+			int loopHeader = innermostLoopHeaders[node];
+			if (loopHeader >= 0) {
+				memberCount++;
+				if (!LoopDFS.get(loopHeaderBits, loopHeader)) {
+					LoopDFS.set(loopHeaderBits, loopHeader);
+					sortedLoopHeaders.add(cfg.nodes[loopHeader]);
 				}
 			}
 		}
+		Collections.sort(sortedLoopHeaders, new NodeSourceCorrespondenceSorter());
+
+		// index the loop headers by ordinal
+		int loopCount = sortedLoopHeaders.size();
+		Node[] loopHeaders = sortedLoopHeaders.toArray(new Node[loopCount]);
+		int[] headerOrdinals = new int[loopCount];
+		boolean[] irreducibleLoops = new boolean[loopCount];
+		for (int i = 0; i < loopCount; i++) {
+			int ordinal = cfg.indexOf(loopHeaders[i]);
+			headerOrdinals[i] = ordinal;
+			loopHeaderIndices[ordinal] = i;
+			irreducibleLoops[i] = LoopDFS.get(dfs.irreducible, ordinal);
+		}
 
-		dfsp.put(b0, 0);
-	}
-
-	private void tag_lhead(Node b, Node h) {
-		if (h == null || h.equals(b)){
-			return;
+		// loopDepth starts at 1 for outermost loops, a nested loop header is one deeper than its parent
+		int[] loopDepths = new int[loopCount];
+		for (int i = 0; i < loopCount; i++) {
+			int depth = 1;
+			for (int h = innermostLoopHeaders[headerOrdinals[i]]; h >= 0 && depth <= loopCount; h = innermostLoopHeaders[h]) {
+				depth++;
+			}
+			loopDepths[i] = depth;
 		}
-		
-		Node cur1 = b;
-		Node cur2 = h;
 
-		Node ih;
-		while ((ih = innermostLoopHeaders.get(cur1)) != null) {
-			if (ih.equals(cur2)){
-				return;
+		Node[] members = new Node[memberCount];
+		int[] memberLoopHeaders = new int[memberCount];
+		int member = 0;
+		Node[] reentryNodeArray = new Node[reentryNodeCount];
+		int reentryNode = 0;
+		for (int node = 0; node < cfg.nodeCount; node++) {
+			int loopHeader = innermostLoopHeaders[node];
+			if (loopHeader >= 0) {
+				members[member] = cfg.nodes[node];
+				memberLoopHeaders[member] = loopHeaderIndices[loopHeader];
+				member++;
 			}
-			if (dfsp.get(ih) < dfsp.get(cur2)) {
-				innermostLoopHeaders.put(cur1, cur2);
-				cur1 = cur2;
-				cur2 = ih;
-			} else {
-				cur1 = ih;
+			if (LoopDFS.get(dfs.reentryNodes, node)) {
+				reentryNodeArray[reentryNode++] = cfg.nodes[node];
 			}
 		}
-		innermostLoopHeaders.put(cur1, cur2);
-	}
-
-	private Deque<Frame> stack = new ArrayDeque<Frame>();
 
-	private static class Frame {
-		int programCounter = 0;
-		Node b = null;
-		Node b0 = null;
-		int position = 0;
-		Iterator<Edge> iterator = null;
+		return new LoopStructure(root, loopHeaders, loopHeaderIDs(root, loopCount), irreducibleLoops, loopDepths, members,
+				memberLoopHeaders, edges(dfs.loopbacks, dfs.loopbackCount), edges(dfs.reentryEdges, dfs.reentryEdgeCount), reentryNodeArray);
 	}
 
-	static private final int ENTER = 0;
-	static private final int EACH_CFG_EDGE = 1;
-	static private final int POP = 2;
-
 	/**
-	 * Iterative implementation, equivalent to loopDFSRecursive()
+	 * Returns the IDs of the loops of a function in source order. Loop IDs
+	 * only depend on the function and the source order of its loops, so they
+	 * are the same across runs, threads and machines.
 	 * 
-	 * @param b0
-	 * @param position
+	 * @param root
+	 * @param loopCount
 	 * @return
 	 */
-	private void loopDFSIterative(Node _b0, int _position) {
-		stack.clear();
-
-		Frame f = new Frame();
-		f.b0 = _b0;
-		f.position = _position;
-		f.programCounter = ENTER;
-
-		stack.push(f);
+	static String[] loopHeaderIDs(Node root, int loopCount) {
+		String functionID = functionID(root);
+		String[] loopHeaderIDs = new String[loopCount];
+		for (int i = 0; i < loopCount; i++) {
+			loopHeaderIDs[i] = functionID + ":" + i;
+		}
+		return loopHeaderIDs;
+	}
 
-		stack: while (!stack.isEmpty()) {
-			f = stack.peek();
+	/**
+	 * Returns a stable identifier for the function containing the given root,
+	 * a hash of the names of the function and its container and the source
+	 * correspondence of the function.
+	 * 
+	 * @param root
+	 * @return
+	 */
+	private static String functionID(Node root) {
+		Node function = getContainer(root);
+		if (function == null) {
+			function = root;
+		}
+		StringBuilder key = new StringBuilder();
+		Node container = getContainer(function);
+		if (container != null && container.hasAttr(XCSG.name)) {
+			key.append(container.getAttr(XCSG.name)).append('.');
+		}
+		key.append(function.getAttr(XCSG.name)).append('@');
+		Object sourceCorrespondence = function.getAttr(XCSG.sourceCorrespondence);
+		key.append(sourceCorrespondence == null ? "<external>" : sourceCorrespondence.toString());
+		return String.format("%016x", hash(key.toString()));
+	}
 
-			switch (f.programCounter) {
-				case POP: {
-					Node nh = innermostLoopHeaders.get(f.b);
-					tag_lhead(f.b0, nh);
-					f.programCounter = EACH_CFG_EDGE;
-					continue stack;
-				}
-				case ENTER:
-					traversed.add(f.b0);
-					dfsp.put(f.b0, f.position);
-					f.iterator = cfContextG.edges(f.b0, NodeDirection.OUT).iterator();
-					// FALL THROUGH
-				case EACH_CFG_EDGE:
-					while (f.iterator.hasNext()) {
-						Edge cfgEdge = f.iterator.next();
-						f.b = cfgEdge.to();
-						if (!traversed.contains(f.b)) {
-							// Paper Case A
-							// new
-							// BEGIN CONVERTED TO ITERATIVE
-							// RECURSE: loopDFS(b, position + 1);
-	
-							f.programCounter = POP;
-	
-							Frame f2 = new Frame();
-							f2.b0 = f.b;
-							f2.position = f.position + 1;
-							f2.programCounter = ENTER;
-	
-							stack.push(f2);
-							continue stack;
-	
-							// case POP:
-							// Node nh = innermostLoopHeaders.get(b);
-							// tag_lhead(b0, nh);
-	
-							// END CONVERTED TO ITERATIVE
-						} else {
-							if (dfsp.get(f.b) > 0) {
-								// Paper Case B
-								// Mark b as a loop header
-								loopbacks.add(cfgEdge);
-								tag_lhead(f.b0, f.b);
-							} else {
-								Node h = innermostLoopHeaders.get(f.b);
-								if (h == null) {
-									// Paper Case C
-									// do nothing
-									continue;
-								}
-								
-								if (dfsp.get(h) > 0) {
-									// Paper Case D
-									// h in DFSP(b0)
-									tag_lhead(f.b0, h);
-								} else {
-									// Paper Case E
-									// h not in DFSP(b0)
-									reentryNodes.add(f.b);
-									reentryEdges.add(cfgEdge);
-									irreducible.add(h);
-	
-									while ((h = innermostLoopHeaders.get(h)) != null) {
-										if (dfsp.get(h) > 0) {
-											tag_lhead(f.b0, h);
-											break;
-										}
-										irreducible.add(h);
-									}
-								}
-							}
-						}
-					}
-					
-					dfsp.put(f.b0, 0);
-					stack.pop();
-			}
+	private Edge[] edges(int[] edgeIndices, int count) {
+		Edge[] result = new Edge[count];
+		for (int i = 0; i < count; i++) {
+			result[i] = cfg.edges[edgeIndices[i]];
 		}
+		return result;
 	}
 
-}
\ No newline at end of file
+}
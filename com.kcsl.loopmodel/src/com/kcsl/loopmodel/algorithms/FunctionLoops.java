@@ -0,0 +1,166 @@
+package com.kcsl.loopmodel.algorithms;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.ensoftcorp.atlas.core.db.graph.Node;
+import com.ensoftcorp.atlas.core.db.set.AtlasHashSet;
+import com.ensoftcorp.atlas.core.db.set.AtlasSet;
+
+/**
+ * The bodies of all the loops of a single control flow root, as bit sets over
+ * the nodes that are inside any loop of the root.
+ * <p>
+ * The body of a loop is its header and every node whose innermost loop is the
+ * loop or a loop nested in it. All the bodies of a function are built in one
+ * pass from the loop membership recorded by {@link DLI}, instead of a
+ * reachability query per loop, and containment and nesting are single bit
+ * tests.
+ */
+public class FunctionLoops {
+
+	private final Node[] loopHeaders;
+	private final Map<Node, Integer> loopIndices;
+
+	/** The node of each ordinal: the loop members followed by the outermost loop headers */
+	private final Node[] nodes;
+	private final Map<Node, Integer> ordinals;
+
+	/** The body of each loop, a bit set over node ordinals */
+	private final long[][] bodies;
+
+	FunctionLoops(LoopStructure structure) {
+		int loopCount = structure.loopHeaders.length;
+		int memberCount = structure.members.length;
+		loopHeaders = structure.loopHeaders;
+		loopIndices = new HashMap<Node, Integer>(loopCount * 2);
+		for (int i = 0; i < loopCount; i++) {
+			loopIndices.put(loopHeaders[i], i);
+		}
+
+		// nested loop headers are members of their parent loop, outermost headers are not members
+		Node[] ordinalNodes = Arrays.copyOf(structure.members, memberCount + loopCount);
+		ordinals = new HashMap<Node, Integer>((memberCount + loopCount) * 2);
+		for (int i = 0; i < memberCount; i++) {
+			ordinals.put(ordinalNodes[i], i);
+		}
+		int nodeCount = memberCount;
+		int[] headerOrdinals = new int[loopCount];
+		int[] parents = new int[loopCount];
+		for (int i = 0; i < loopCount; i++) {
+			Integer ordinal = ordinals.get(loopHeaders[i]);
+			if (ordinal == null) {
+				ordinal = nodeCount++;
+				ordinalNodes[ordinal] = loopHeaders[i];
+				ordinals.put(loopHeaders[i], ordinal);
+				parents[i] = -1;
+			} else {
+				parents[i] = structure.memberLoopHeaders[ordinal];
+			}
+			headerOrdinals[i] = ordinal;
+		}
+		nodes = nodeCount == ordinalNodes.length ? ordinalNodes : Arrays.copyOf(ordinalNodes, nodeCount);
+
+		int words = (nodeCount + 63) >>> 6;
+		bodies = new long[loopCount][words];
+		for (int i = 0; i < memberCount; i++) {
+			LoopDFS.set(bodies[structure.memberLoopHeaders[i]], i);
+		}
+		for (int i = 0; i < loopCount; i++) {
+			LoopDFS.set(bodies[i], headerOrdinals[i]);
+		}
+
+		// fold each body into its parent, deepest loops first
+		int maxDepth = 0;
+		for (int depth : structure.loopDepths) {
+			maxDepth = Math.max(maxDepth, depth);
+		}
+		for (int depth = maxDepth; depth > 1; depth--) {
+			for (int i = 0; i < loopCount; i++) {
+				if (structure.loopDepths[i] == depth && parents[i] >= 0) {
+					long[] body = bodies[i];
+					long[] parentBody = bodies[parents[i]];
+					for (int word = 0; word < words; word++) {
+						parentBody[word] |= body[word];
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the loop headers of the function, sorted by source correspondence
+	 */
+	public List<Node> getLoopHeaders() {
+		return Collections.unmodifiableList(Arrays.asList(loopHeaders));
+	}
+
+	/**
+	 * Returns the nodes of the body of the given loop, including its header
+	 * and the bodies of nested loops.
+	 *
+	 * @param loopHeader
+	 * @return
+	 */
+	public AtlasSet<Node> getLoopBody(Node loopHeader) {
+		long[] body = bodies[index(loopHeader)];
+		AtlasSet<Node> result = new AtlasHashSet<Node>();
+		for (int word = 0; word < body.length; word++) {
+			long bits = body[word];
+			while (bits != 0) {
+				result.add(nodes[(word << 6) + Long.numberOfTrailingZeros(bits)]);
+				bits &= bits - 1;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the number of nodes in the body of the given loop
+	 *
+	 * @param loopHeader
+	 * @return
+	 */
+	public int getLoopBodySize(Node loopHeader) {
+		int size = 0;
+		for (long bits : bodies[index(loopHeader)]) {
+			size += Long.bitCount(bits);
+		}
+		return size;
+	}
+
+	/**
+	 * Returns true if the given node is in the body of the given loop
+	 *
+	 * @param loopHeader
+	 * @param node
+	 * @return
+	 */
+	public boolean isInLoopBody(Node loopHeader, Node node) {
+		Integer ordinal = ordinals.get(node);
+		return ordinal != null && LoopDFS.get(bodies[index(loopHeader)], ordinal);
+	}
+
+	/**
+	 * Returns true if <code>inner</code> is a loop transitively nested in the loop <code>outer</code>
+	 *
+	 * @param outer
+	 * @param inner
+	 * @return
+	 */
+	public boolean isNested(Node outer, Node inner) {
+		return !outer.equals(inner) && loopIndices.containsKey(inner) && isInLoopBody(outer, inner);
+	}
+
+	private int index(Node loopHeader) {
+		Integer loop = loopIndices.get(loopHeader);
+		if (loop == null) {
+			throw new IllegalArgumentException("Not a loop header of this function: " + loopHeader);
+		}
+		return loop;
+	}
+
+}
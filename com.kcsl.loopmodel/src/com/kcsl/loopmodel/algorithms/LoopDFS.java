@@ -0,0 +1,288 @@
+package com.kcsl.loopmodel.algorithms;
+
+import java.util.Arrays;
+
+/**
+ * The loop identification core of {@link DLI}: the loop DFS and tag_lhead from
+ * Wei et al., over an {@link OrdinalGraph}.
+ * <p>
+ * An instance is a reusable workspace for one thread. After
+ * {@link #run(OrdinalGraph, int)} the results are read from the package
+ * visible fields, which stay valid until the next run.
+ * <p>
+ * With path compression the Paper Case E walk, which follows the header
+ * chain of a finished loop to the first header still on the DFSP, jumps over
+ * the part of the chain an earlier walk already went through. A node's
+ * header never changes once the node leaves the DFSP and the walk only marks
+ * headers irreducible, so a jump stays valid for the rest of the run. The
+ * results are identical to the exact mode. tag_lhead itself always walks
+ * link by link, it rewrites the links of nodes that are still on the DFSP.
+ */
+class LoopDFS {
+
+	/** Marks a node without a Case E jump */
+	private static final int NO_JUMP = -2;
+
+	/** The node's position in the DFSP (Depth-first search path), 0 when the node is not on the path */
+	int[] dfsp = new int[0];
+
+	/** The ordinal of the innermost loop header of each node, -1 if the node is not in a loop */
+	int[] innermostLoopHeaders = new int[0];
+
+	/** Bit sets over node ordinals */
+	long[] traversed = new long[0], reentryNodes = new long[0], irreducible = new long[0];
+
+	/** Edge indices of the loop back edges and loop reentry edges */
+	int[] loopbacks = new int[16], reentryEdges = new int[16];
+	int loopbackCount, reentryEdgeCount;
+
+	/** The number of loop header chain steps taken by tag_lhead in the last run */
+	long tagLheadSteps;
+
+	/** The iterative DFS frame stack, the node and the index of its next edge to visit */
+	private int[] stackNodes = new int[0], stackEdgeCursors = new int[0];
+
+	/** The edges of the graph being analyzed */
+	private int[] edgeOffsets, edgeTargets;
+
+	/** Whether the Case E header walk uses path compression */
+	private final boolean pathCompression;
+
+	/** The node the Case E walk continues at after each finished node, {@link #NO_JUMP} if not walked yet */
+	private int[] reentryJumps = new int[0];
+
+	/** The nodes visited by the current Case E walk */
+	private int[] reentryWalk = new int[0];
+
+	/**
+	 * Creates a workspace that walks header chains link by link
+	 */
+	LoopDFS() {
+		this(false);
+	}
+
+	/**
+	 * @param pathCompression true to compress the header chains walked by Paper Case E
+	 */
+	LoopDFS(boolean pathCompression) {
+		this.pathCompression = pathCompression;
+	}
+
+	/**
+	 * Identifies the loops of the given graph reachable from the given root.
+	 *
+	 * @param graph
+	 * @param root
+	 */
+	void run(OrdinalGraph graph, int root) {
+		reset(graph.nodeCount());
+		edgeOffsets = graph.edgeOffsets();
+		edgeTargets = graph.edgeTargets();
+		try {
+			// a recursive strategy may overflow the call stack in some cases
+			// so using an equivalent iterative strategy
+			loopDFSIterative(root);
+		} finally {
+			edgeOffsets = null;
+			edgeTargets = null;
+		}
+	}
+
+	/**
+	 * Clears the state for a graph with the given number of nodes, growing
+	 * the workspace if needed.
+	 *
+	 * @param nodeCount
+	 */
+	private void reset(int nodeCount) {
+		if (dfsp.length < nodeCount) {
+			int capacity = Math.max(nodeCount, dfsp.length * 2);
+			dfsp = new int[capacity];
+			innermostLoopHeaders = new int[capacity];
+			stackNodes = new int[capacity];
+			stackEdgeCursors = new int[capacity];
+			int words = (capacity + 63) >>> 6;
+			traversed = new long[words];
+			reentryNodes = new long[words];
+			irreducible = new long[words];
+			if (pathCompression) {
+				reentryJumps = new int[capacity];
+				reentryWalk = new int[capacity];
+			}
+		}
+		if (pathCompression) {
+			Arrays.fill(reentryJumps, 0, nodeCount, NO_JUMP);
+		}
+		Arrays.fill(dfsp, 0, nodeCount, 0);
+		Arrays.fill(innermostLoopHeaders, 0, nodeCount, -1);
+		int words = (nodeCount + 63) >>> 6;
+		Arrays.fill(traversed, 0, words, 0L);
+		Arrays.fill(reentryNodes, 0, words, 0L);
+		Arrays.fill(irreducible, 0, words, 0L);
+		loopbackCount = 0;
+		reentryEdgeCount = 0;
+		tagLheadSteps = 0;
+	}
+
+	private void tag_lhead(int b, int h) {
+		if (h < 0 || h == b){
+			return;
+		}
+
+		int cur1 = b;
+		int cur2 = h;
+
+		int ih;
+		while ((ih = innermostLoopHeaders[cur1]) >= 0) {
+			tagLheadSteps++;
+			if (ih == cur2){
+				return;
+			}
+			if (dfsp[ih] < dfsp[cur2]) {
+				innermostLoopHeaders[cur1] = cur2;
+				cur1 = cur2;
+				cur2 = ih;
+			} else {
+				cur1 = ih;
+			}
+		}
+		innermostLoopHeaders[cur1] = cur2;
+	}
+
+	/**
+	 * Iterative implementation of the recursive loop DFS from the paper.
+	 * <p>
+	 * Each stack frame is a node ordinal and the index of the next outgoing
+	 * edge to visit. The position of a node in the DFSP is its depth on the
+	 * stack. Returning from a child is handled when the child frame is popped,
+	 * which corresponds to the code following the recursive call.
+	 *
+	 * @param root
+	 */
+	private void loopDFSIterative(int root) {
+		int top = 0;
+		enter(root, top++);
+
+		while (top > 0) {
+			int b0 = stackNodes[top - 1];
+			int cursor = stackEdgeCursors[top - 1];
+			if (cursor == edgeOffsets[b0 + 1]) {
+				// all successors visited, leave the DFSP
+				dfsp[b0] = 0;
+				top--;
+				if (top > 0) {
+					// RETURN FROM: loopDFS(b, position + 1);
+					// Node nh = innermostLoopHeaders.get(b);
+					// tag_lhead(b0, nh);
+					tag_lhead(stackNodes[top - 1], innermostLoopHeaders[b0]);
+				}
+				continue;
+			}
+			stackEdgeCursors[top - 1] = cursor + 1;
+
+			int b = edgeTargets[cursor];
+			if (!get(traversed, b)) {
+				// Paper Case A
+				// new
+				// RECURSE: loopDFS(b, position + 1);
+				enter(b, top++);
+			} else {
+				if (dfsp[b] > 0) {
+					// Paper Case B
+					// Mark b as a loop header
+					loopbacks = add(loopbacks, loopbackCount++, cursor);
+					tag_lhead(b0, b);
+				} else {
+					int h = innermostLoopHeaders[b];
+					if (h < 0) {
+						// Paper Case C
+						// do nothing
+						continue;
+					}
+
+					if (dfsp[h] > 0) {
+						// Paper Case D
+						// h in DFSP(b0)
+						tag_lhead(b0, h);
+					} else {
+						// Paper Case E
+						// h not in DFSP(b0)
+						set(reentryNodes, b);
+						reentryEdges = add(reentryEdges, reentryEdgeCount++, cursor);
+						set(irreducible, h);
+
+						if (pathCompression) {
+							resolveReentry(b0, h);
+							continue;
+						}
+						while ((h = innermostLoopHeaders[h]) >= 0) {
+							if (dfsp[h] > 0) {
+								tag_lhead(b0, h);
+								break;
+							}
+							set(irreducible, h);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * The Paper Case E walk with path compression: marks the finished headers
+	 * enclosing <code>h</code> irreducible, up to the first header on the
+	 * DFSP, which becomes a loop header of <code>b0</code>.
+	 * <p>
+	 * Every finished node on the walk is pointed at the node the walk ended
+	 * at. All the nodes in between are finished and irreducible, which never
+	 * changes, so a later walk reaching any of them can continue from there.
+	 * 
+	 * @param b0
+	 * @param h A finished loop header, already marked irreducible
+	 */
+	private void resolveReentry(int b0, int h) {
+		int visited = 0;
+		int current = h;
+		int next;
+		while (true) {
+			reentryWalk[visited++] = current;
+			int jump = reentryJumps[current];
+			next = jump != NO_JUMP ? jump : innermostLoopHeaders[current];
+			if (next < 0 || dfsp[next] > 0) {
+				break;
+			}
+			set(irreducible, next);
+			current = next;
+		}
+		for (int i = 0; i < visited; i++) {
+			reentryJumps[reentryWalk[i]] = next;
+		}
+		if (next >= 0) {
+			tag_lhead(b0, next);
+		}
+	}
+
+	private void enter(int node, int frame) {
+		set(traversed, node);
+		dfsp[node] = frame + 1;
+		stackNodes[frame] = node;
+		stackEdgeCursors[frame] = edgeOffsets[node];
+	}
+
+	private static int[] add(int[] values, int index, int value) {
+		if (index == values.length) {
+			values = Arrays.copyOf(values, index * 2);
+		}
+		values[index] = value;
+		return values;
+	}
+
+	static boolean get(long[] bits, int index) {
+		return (bits[index >>> 6] & (1L << index)) != 0;
+	}
+
+	static void set(long[] bits, int index) {
+		bits[index >>> 6] |= 1L << index;
+	}
+
+}
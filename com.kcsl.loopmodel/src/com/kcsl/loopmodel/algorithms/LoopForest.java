@@ -0,0 +1,290 @@
+package com.kcsl.loopmodel.algorithms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.ensoftcorp.atlas.core.db.graph.Node;
+
+/**
+ * The loop nesting forest recovered by {@link DLI}, built once from its
+ * results so that nesting questions are answered without graph queries.
+ * <p>
+ * Every lookup is a hash lookup followed by array accesses. The transitive
+ * descendants of a loop are a contiguous range of the pre-order of the forest,
+ * so they are returned as a view without being copied.
+ */
+public class LoopForest {
+
+	/** The index of each loop header */
+	private final Map<Node, Integer> loopIndices;
+
+	/** The innermost loop header index of each loop member */
+	private final Map<Node, Integer> memberLoops;
+
+	private final Node[] loopHeaders;
+	private final int[] parents;
+	private final int[] depths;
+	private final int[] memberCounts;
+	private final List<List<Node>> children;
+
+	/** The analyzed roots and the root of each loop, as an index into them */
+	private final LoopStructure[] structures;
+	private final int[] loopStructures;
+
+	/** The loop bodies of each root, built on first use */
+	private final AtomicReferenceArray<FunctionLoops> functionLoops;
+
+	/** The loop headers in pre-order, loop i and its descendants are preorder[preorderIndex[i]..preorderEnd[i]) */
+	private final List<Node> preorder;
+	private final int[] preorderIndex;
+	private final int[] preorderEnd;
+
+	LoopForest(Collection<LoopStructure> structures) {
+		int loopCount = 0;
+		int memberCount = 0;
+		for (LoopStructure structure : structures) {
+			loopCount += structure.loopHeaders.length;
+			memberCount += structure.members.length;
+		}
+
+		loopIndices = new HashMap<Node, Integer>(loopCount * 2);
+		memberLoops = new HashMap<Node, Integer>(memberCount * 2);
+		loopHeaders = new Node[loopCount];
+		parents = new int[loopCount];
+		depths = new int[loopCount];
+		memberCounts = new int[loopCount];
+		Arrays.fill(parents, -1);
+
+		this.structures = structures.toArray(new LoopStructure[structures.size()]);
+		loopStructures = new int[loopCount];
+		functionLoops = new AtomicReferenceArray<FunctionLoops>(this.structures.length);
+
+		int offset = 0;
+		for (int structureIndex = 0; structureIndex < this.structures.length; structureIndex++) {
+			LoopStructure structure = this.structures[structureIndex];
+			for (int i = 0; i < structure.loopHeaders.length; i++) {
+				loopStructures[offset + i] = structureIndex;
+				loopHeaders[offset + i] = structure.loopHeaders[i];
+				depths[offset + i] = structure.loopDepths[i];
+				loopIndices.put(structure.loopHeaders[i], offset + i);
+			}
+			for (int i = 0; i < structure.members.length; i++) {
+				int loop = offset + structure.memberLoopHeaders[i];
+				Node member = structure.members[i];
+				memberLoops.put(member, loop);
+				memberCounts[loop]++;
+				Integer nestedLoop = loopIndices.get(member);
+				if (nestedLoop != null && nestedLoop >= offset) {
+					parents[nestedLoop] = loop;
+				}
+			}
+			offset += structure.loopHeaders.length;
+		}
+
+		List<List<Node>> childLists = new ArrayList<List<Node>>(loopCount);
+		int[] firstChild = new int[loopCount];
+		int[] nextSibling = new int[loopCount];
+		Arrays.fill(firstChild, -1);
+		for (int loop = loopCount - 1; loop >= 0; loop--) {
+			if (parents[loop] >= 0) {
+				nextSibling[loop] = firstChild[parents[loop]];
+				firstChild[parents[loop]] = loop;
+			}
+		}
+		for (int loop = 0; loop < loopCount; loop++) {
+			List<Node> loopChildren = new ArrayList<Node>();
+			for (int child = firstChild[loop]; child >= 0; child = nextSibling[child]) {
+				loopChildren.add(loopHeaders[child]);
+			}
+			childLists.add(loopChildren.isEmpty() ? Collections.<Node>emptyList() : Collections.unmodifiableList(loopChildren));
+		}
+		children = childLists;
+
+		// number the loops in pre-order, iteratively since kernel nesting can be deep
+		Node[] order = new Node[loopCount];
+		preorderIndex = new int[loopCount];
+		preorderEnd = new int[loopCount];
+		int[] stack = new int[loopCount];
+		int next = 0;
+		for (int root = 0; root < loopCount; root++) {
+			if (parents[root] >= 0) {
+				continue;
+			}
+			int top = 0;
+			stack[top++] = root;
+			while (top > 0) {
+				int loop = stack[--top];
+				preorderIndex[loop] = next;
+				order[next++] = loopHeaders[loop];
+				// push the children in reverse so they are numbered in source order
+				int childCount = 0;
+				for (int child = firstChild[loop]; child >= 0; child = nextSibling[child]) {
+					stack[top + childCount++] = child;
+				}
+				for (int i = 0, j = childCount - 1; i < j; i++, j--) {
+					int swap = stack[top + i];
+					stack[top + i] = stack[top + j];
+					stack[top + j] = swap;
+				}
+				top += childCount;
+			}
+		}
+		preorder = Collections.unmodifiableList(Arrays.asList(order));
+
+		// a loop's subtree ends where the next loop that is not its descendant starts,
+		// computed bottom up: descendants have larger pre-order numbers than their ancestors
+		int[] byPreorder = new int[loopCount];
+		for (int loop = 0; loop < loopCount; loop++) {
+			byPreorder[preorderIndex[loop]] = loop;
+			preorderEnd[loop] = preorderIndex[loop] + 1;
+		}
+		for (int position = loopCount - 1; position >= 0; position--) {
+			int loop = byPreorder[position];
+			if (parents[loop] >= 0) {
+				preorderEnd[parents[loop]] = Math.max(preorderEnd[parents[loop]], preorderEnd[loop]);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of loops in this forest
+	 */
+	public int size() {
+		return loopHeaders.length;
+	}
+
+	public boolean isLoopHeader(Node node) {
+		return loopIndices.containsKey(node);
+	}
+
+	/**
+	 * Returns true if the given node is inside a loop, loop headers of nested
+	 * loops are inside their enclosing loop.
+	 *
+	 * @param node
+	 * @return
+	 */
+	public boolean isInLoop(Node node) {
+		return memberLoops.containsKey(node);
+	}
+
+	/**
+	 * Returns the header of the innermost loop containing the given node or
+	 * null if the node is not inside a loop.
+	 *
+	 * @param node
+	 * @return
+	 */
+	public Node getInnermostLoopHeader(Node node) {
+		Integer loop = memberLoops.get(node);
+		return loop == null ? null : loopHeaders[loop];
+	}
+
+	/**
+	 * Returns the header of the loop enclosing the given loop or null for an
+	 * outermost loop.
+	 *
+	 * @param loopHeader
+	 * @return
+	 */
+	public Node getParent(Node loopHeader) {
+		int parent = parents[index(loopHeader)];
+		return parent < 0 ? null : loopHeaders[parent];
+	}
+
+	/**
+	 * Returns the headers of the loops directly nested in the given loop
+	 *
+	 * @param loopHeader
+	 * @return
+	 */
+	public List<Node> getChildren(Node loopHeader) {
+		return children.get(index(loopHeader));
+	}
+
+	/**
+	 * Returns the nesting depth of the given loop, starting at 1 for outermost loops
+	 *
+	 * @param loopHeader
+	 * @return
+	 */
+	public int getDepth(Node loopHeader) {
+		return depths[index(loopHeader)];
+	}
+
+	/**
+	 * Returns the number of nodes whose innermost loop is the given loop,
+	 * including the headers of directly nested loops but not the given loop
+	 * header itself.
+	 *
+	 * @param loopHeader
+	 * @return
+	 */
+	public int getMemberCount(Node loopHeader) {
+		return memberCounts[index(loopHeader)];
+	}
+
+	/**
+	 * Returns the headers of all the loops transitively nested in the given
+	 * loop, in pre-order.
+	 *
+	 * @param loopHeader
+	 * @return
+	 */
+	public List<Node> getDescendants(Node loopHeader) {
+		int loop = index(loopHeader);
+		return preorder.subList(preorderIndex[loop] + 1, preorderEnd[loop]);
+	}
+
+	/**
+	 * Returns true if <code>descendant</code> is transitively nested in <code>loopHeader</code>
+	 *
+	 * @param loopHeader
+	 * @param descendant
+	 * @return
+	 */
+	public boolean isDescendant(Node loopHeader, Node descendant) {
+		Integer loop = loopIndices.get(loopHeader);
+		Integer other = loopIndices.get(descendant);
+		if (loop == null || other == null || loop.equals(other)) {
+			return false;
+		}
+		return preorderIndex[other] > preorderIndex[loop] && preorderIndex[other] < preorderEnd[loop];
+	}
+
+	/**
+	 * Returns the bodies of all the loops of the function containing the
+	 * given loop. The bodies of a function are built once, the first time any
+	 * of its loops is requested.
+	 *
+	 * @param loopHeader
+	 * @return
+	 */
+	public FunctionLoops getFunctionLoops(Node loopHeader) {
+		int structure = loopStructures[index(loopHeader)];
+		FunctionLoops loops = functionLoops.get(structure);
+		if (loops == null) {
+			// concurrent callers may both build the bodies, they are equal
+			loops = new FunctionLoops(structures[structure]);
+			if (!functionLoops.compareAndSet(structure, null, loops)) {
+				loops = functionLoops.get(structure);
+			}
+		}
+		return loops;
+	}
+
+	private int index(Node loopHeader) {
+		Integer loop = loopIndices.get(loopHeader);
+		if (loop == null) {
+			throw new IllegalArgumentException("Not a loop header: " + loopHeader);
+		}
+		return loop;
+	}
+
+}
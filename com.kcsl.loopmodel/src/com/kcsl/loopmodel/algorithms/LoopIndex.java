@@ -0,0 +1,432 @@
+package com.kcsl.loopmodel.algorithms;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.ensoftcorp.atlas.core.db.graph.Edge;
+import com.ensoftcorp.atlas.core.db.graph.Node;
+
+/**
+ * A persistent, memory mapped index of the loops recovered by {@link DLI}.
+ * <p>
+ * The index holds one record per control flow root, keyed by the fingerprint
+ * of the root's CFG. Graph elements are identified by a hash of their address,
+ * so a record can only be resolved against a CFG with the same fingerprint,
+ * which is the same graph the record was created from. Edges also carry the
+ * hash of their own address, so parallel edges between the same nodes are
+ * told apart.
+ * <p>
+ * An index is stored in two slots, the configured file and a sibling with the
+ * {@link #ALTERNATE_SUFFIX}. A new index goes to a slot that is not mapped,
+ * since a mapped file cannot be replaced on every platform, and the slot with
+ * the highest generation is loaded. A malformed file or record is treated as
+ * missing, so the loops are recovered again.
+ * <p>
+ * File layout (big endian):
+ * <pre>
+ * int magic, int version, long generation, int recordCount
+ * recordCount x (long fingerprint, long offset), sorted by fingerprint
+ * records:
+ *   int loopCount,        loopCount x (long header, byte irreducible, int depth)
+ *   int memberCount,      memberCount x (long member, int loopHeaderIndex)
+ *   int loopbackCount,    loopbackCount x (long from, long to, long edge)
+ *   int reentryEdgeCount, reentryEdgeCount x (long from, long to, long edge)
+ *   int reentryNodeCount, reentryNodeCount x (long node)
+ * </pre>
+ */
+class LoopIndex {
+
+	/** The suffix of the second slot of an index file */
+	static final String ALTERNATE_SUFFIX = ".alt";
+
+	private static final int MAGIC = 0x444c4958; // DLIX
+	private static final int VERSION = 3;
+	private static final int HEADER_SIZE = 20;
+	private static final int TABLE_ENTRY_SIZE = 16;
+	private static final int LOOP_SIZE = 13;
+	private static final int MEMBER_SIZE = 12;
+	private static final int EDGE_SIZE = 24;
+	private static final int NODE_SIZE = 8;
+
+	private final Path file;
+	private final Path mappedFile;
+	private final long generation;
+	private final MappedByteBuffer buffer;
+	private final long[] fingerprints;
+
+	private LoopIndex(Path file, Path mappedFile, long generation, MappedByteBuffer buffer, long[] fingerprints) {
+		this.file = file;
+		this.mappedFile = mappedFile;
+		this.generation = generation;
+		this.buffer = buffer;
+		this.fingerprints = fingerprints;
+	}
+
+	/**
+	 * Returns the configured index file, which may be mapped from its alternate slot
+	 */
+	Path getFile() {
+		return file;
+	}
+
+	private static Path alternate(Path file) {
+		return file.resolveSibling(file.getFileName() + ALTERNATE_SUFFIX);
+	}
+
+	/**
+	 * Maps the slot of the given index file with the highest generation.
+	 *
+	 * @param file
+	 * @return The index or null if neither slot holds a well formed loop index
+	 * @throws IOException
+	 */
+	static LoopIndex load(Path file) throws IOException {
+		Path alternate = alternate(file);
+		long generation = readGeneration(file);
+		long alternateGeneration = readGeneration(alternate);
+		// only the chosen slot is mapped, the other one stays free for the next index
+		if (alternateGeneration > generation) {
+			LoopIndex index = map(file, alternate);
+			return index != null || generation < 0 ? index : map(file, file);
+		}
+		if (generation < 0) {
+			return null;
+		}
+		LoopIndex index = map(file, file);
+		return index != null || alternateGeneration < 0 ? index : map(file, alternate);
+	}
+
+	/**
+	 * Returns the generation of the index in the given slot, -1 if the slot
+	 * does not hold a loop index of this version. Reads the header without
+	 * mapping the file.
+	 */
+	private static long readGeneration(Path slot) throws IOException {
+		if (!Files.isRegularFile(slot)) {
+			return -1;
+		}
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		try (FileChannel channel = FileChannel.open(slot, StandardOpenOption.READ)) {
+			while (header.hasRemaining()) {
+				if (channel.read(header) < 0) {
+					break;
+				}
+			}
+		}
+		if (header.hasRemaining() || header.getInt(0) != MAGIC || header.getInt(4) != VERSION || header.getLong(8) < 0) {
+			return -1;
+		}
+		return header.getLong(8);
+	}
+
+	private static LoopIndex map(Path file, Path slot) throws IOException {
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(slot, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				return null;
+			}
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		int limit = buffer.limit();
+		if (limit < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+			return null;
+		}
+		int recordCount = buffer.getInt(16);
+		if (recordCount < 0 || HEADER_SIZE + (long) recordCount * TABLE_ENTRY_SIZE > limit) {
+			return null;
+		}
+		long recordsStart = HEADER_SIZE + (long) recordCount * TABLE_ENTRY_SIZE;
+		long[] fingerprints = new long[recordCount];
+		for (int i = 0; i < recordCount; i++) {
+			fingerprints[i] = buffer.getLong(HEADER_SIZE + i * TABLE_ENTRY_SIZE);
+			long offset = buffer.getLong(HEADER_SIZE + i * TABLE_ENTRY_SIZE + 8);
+			// the lookup is a binary search, the table must be sorted
+			if ((i > 0 && fingerprints[i] < fingerprints[i - 1]) || offset < recordsStart || offset >= limit) {
+				return null;
+			}
+		}
+		return new LoopIndex(file, slot, buffer.getLong(8), buffer, fingerprints);
+	}
+
+	/**
+	 * Looks up the record for the given CFG fingerprint.
+	 *
+	 * @param fingerprint
+	 * @return The record number or -1 if there is no record for the fingerprint
+	 */
+	int find(long fingerprint) {
+		int record = Arrays.binarySearch(fingerprints, fingerprint);
+		return record < 0 ? -1 : record;
+	}
+
+	/**
+	 * Returns true if the given number of elements of the given size fit in
+	 * the file after the given position
+	 */
+	private boolean fits(long position, int count, int size) {
+		return count >= 0 && position >= 0 && position + (long) count * size <= buffer.limit();
+	}
+
+	/**
+	 * Resolves a record against the snapshot of the CFG it was created from.
+	 * Reading uses absolute positions only, so a single index can be shared by
+	 * all worker threads.
+	 *
+	 * @param record A record number returned by {@link #find(long)}
+	 * @param cfg The snapshot of the root's CFG
+	 * @param root
+	 * @return The loops of the root or null if the record does not match the snapshot or is malformed
+	 */
+	LoopStructure decode(int record, CFGSnapshot cfg, Node root) {
+		Map<Long, Integer> ordinals = new HashMap<Long, Integer>(cfg.nodeCount * 2);
+		for (int node = 0; node < cfg.nodeCount; node++) {
+			ordinals.put(DLI.hash(cfg.nodes[node].address().toAddressString()), node);
+		}
+
+		// offsets were checked against the file when it was mapped
+		int position = (int) buffer.getLong(HEADER_SIZE + record * TABLE_ENTRY_SIZE + 8);
+
+		if (!fits(position, 1, 4)) {
+			return null;
+		}
+		int loopCount = buffer.getInt(position);
+		position += 4;
+		if (!fits(position, loopCount, LOOP_SIZE)) {
+			return null;
+		}
+		Node[] loopHeaders = new Node[loopCount];
+		boolean[] irreducible = new boolean[loopCount];
+		int[] loopDepths = new int[loopCount];
+		for (int i = 0; i < loopCount; i++) {
+			Integer header = ordinals.get(buffer.getLong(position));
+			if (header == null) {
+				return null;
+			}
+			loopHeaders[i] = cfg.nodes[header];
+			irreducible[i] = buffer.get(position + 8) != 0;
+			loopDepths[i] = buffer.getInt(position + 9);
+			position += LOOP_SIZE;
+		}
+
+		if (!fits(position, 1, 4)) {
+			return null;
+		}
+		int memberCount = buffer.getInt(position);
+		position += 4;
+		if (!fits(position, memberCount, MEMBER_SIZE)) {
+			return null;
+		}
+		Node[] members = new Node[memberCount];
+		int[] memberLoopHeaders = new int[memberCount];
+		for (int i = 0; i < memberCount; i++) {
+			Integer member = ordinals.get(buffer.getLong(position));
+			int loopHeader = buffer.getInt(position + 8);
+			if (member == null || loopHeader < 0 || loopHeader >= loopCount) {
+				return null;
+			}
+			members[i] = cfg.nodes[member];
+			memberLoopHeaders[i] = loopHeader;
+			position += MEMBER_SIZE;
+		}
+
+		Edge[] loopbackEdges = decodeEdges(position, cfg, ordinals);
+		if (loopbackEdges == null) {
+			return null;
+		}
+		position += 4 + loopbackEdges.length * EDGE_SIZE;
+
+		Edge[] reentryEdges = decodeEdges(position, cfg, ordinals);
+		if (reentryEdges == null) {
+			return null;
+		}
+		position += 4 + reentryEdges.length * EDGE_SIZE;
+
+		if (!fits(position, 1, 4)) {
+			return null;
+		}
+		int reentryNodeCount = buffer.getInt(position);
+		position += 4;
+		if (!fits(position, reentryNodeCount, NODE_SIZE)) {
+			return null;
+		}
+		Node[] reentryNodes = new Node[reentryNodeCount];
+		for (int i = 0; i < reentryNodeCount; i++) {
+			Integer node = ordinals.get(buffer.getLong(position));
+			if (node == null) {
+				return null;
+			}
+			reentryNodes[i] = cfg.nodes[node];
+			position += NODE_SIZE;
+		}
+
+		return new LoopStructure(root, loopHeaders, DLI.loopHeaderIDs(root, loopCount), irreducible, loopDepths,
+				members, memberLoopHeaders, loopbackEdges, reentryEdges, reentryNodes);
+	}
+
+	private Edge[] decodeEdges(int position, CFGSnapshot cfg, Map<Long, Integer> ordinals) {
+		if (!fits(position, 1, 4)) {
+			return null;
+		}
+		int count = buffer.getInt(position);
+		position += 4;
+		if (!fits(position, count, EDGE_SIZE)) {
+			return null;
+		}
+		Edge[] edges = new Edge[count];
+		for (int i = 0; i < count; i++) {
+			Integer from = ordinals.get(buffer.getLong(position));
+			Integer to = ordinals.get(buffer.getLong(position + 8));
+			long address = buffer.getLong(position + 16);
+			if (from == null || to == null) {
+				return null;
+			}
+			// match the edge itself, parallel edges share their source and target
+			for (int edge = cfg.edgeOffsets[from]; edge < cfg.edgeOffsets[from + 1]; edge++) {
+				if (cfg.edgeTargets[edge] == to && hash(cfg.edges[edge]) == address) {
+					edges[i] = cfg.edges[edge];
+					break;
+				}
+			}
+			if (edges[i] == null) {
+				return null;
+			}
+			position += EDGE_SIZE;
+		}
+		return edges;
+	}
+
+	/**
+	 * Writes an index of the given loops into a slot of the given file that
+	 * the <code>current</code> index does not map, with the next generation.
+	 * The index is written next to the slot and moved into place. The other
+	 * slot is tried if the move fails, for a slot still mapped elsewhere.
+	 *
+	 * @param file
+	 * @param current The currently mapped index of the file, null if there is none
+	 * @param fingerprints The CFG fingerprint of each structure
+	 * @param structures
+	 * @throws IOException
+	 */
+	static void write(Path file, LoopIndex current, final long[] fingerprints, List<LoopStructure> structures) throws IOException {
+		// sort the records by fingerprint for the lookup table
+		Integer[] order = new Integer[structures.size()];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Long.compare(fingerprints[a], fingerprints[b]);
+			}
+		});
+
+		// encode the records first to know their offsets
+		ByteBuffer[] records = new ByteBuffer[order.length];
+		long offset = HEADER_SIZE + (long) order.length * TABLE_ENTRY_SIZE;
+		long[] offsets = new long[order.length];
+		for (int i = 0; i < order.length; i++) {
+			records[i] = encode(structures.get(order[i]));
+			offsets[i] = offset;
+			offset += records[i].remaining();
+		}
+		if (offset > Integer.MAX_VALUE) {
+			throw new IOException("Loop index too large: " + offset + " bytes");
+		}
+
+		Path parent = file.toAbsolutePath().getParent();
+		if (parent != null) {
+			Files.createDirectories(parent);
+		}
+		long generation = Math.max(readGeneration(file), readGeneration(alternate(file))) + 1;
+		Path slot = current != null && current.mappedFile.equals(file) ? alternate(file) : file;
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		try (OutputStream stream = Files.newOutputStream(temporary);
+				DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16))) {
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			output.writeLong(generation);
+			output.writeInt(order.length);
+			for (int i = 0; i < order.length; i++) {
+				output.writeLong(fingerprints[order[i]]);
+				output.writeLong(offsets[i]);
+			}
+			for (ByteBuffer record : records) {
+				output.write(record.array(), 0, record.remaining());
+			}
+		}
+		try {
+			move(temporary, slot);
+		} catch (IOException e) {
+			move(temporary, slot.equals(file) ? alternate(file) : file);
+		}
+	}
+
+	private static void move(Path temporary, Path slot) throws IOException {
+		try {
+			Files.move(temporary, slot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temporary, slot, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	private static ByteBuffer encode(LoopStructure structure) {
+		int size = 4 + structure.loopHeaders.length * LOOP_SIZE
+				+ 4 + structure.members.length * MEMBER_SIZE
+				+ 4 + structure.loopbackEdges.length * EDGE_SIZE
+				+ 4 + structure.reentryEdges.length * EDGE_SIZE
+				+ 4 + structure.reentryNodes.length * NODE_SIZE;
+		ByteBuffer record = ByteBuffer.allocate(size);
+		record.putInt(structure.loopHeaders.length);
+		for (int i = 0; i < structure.loopHeaders.length; i++) {
+			record.putLong(hash(structure.loopHeaders[i]));
+			record.put((byte) (structure.irreducible[i] ? 1 : 0));
+			record.putInt(structure.loopDepths[i]);
+		}
+		record.putInt(structure.members.length);
+		for (int i = 0; i < structure.members.length; i++) {
+			record.putLong(hash(structure.members[i]));
+			record.putInt(structure.memberLoopHeaders[i]);
+		}
+		encodeEdges(record, structure.loopbackEdges);
+		encodeEdges(record, structure.reentryEdges);
+		record.putInt(structure.reentryNodes.length);
+		for (Node reentryNode : structure.reentryNodes) {
+			record.putLong(hash(reentryNode));
+		}
+		record.flip();
+		return record;
+	}
+
+	private static void encodeEdges(ByteBuffer record, Edge[] edges) {
+		record.putInt(edges.length);
+		for (Edge edge : edges) {
+			record.putLong(hash(edge.from()));
+			record.putLong(hash(edge.to()));
+			record.putLong(hash(edge));
+		}
+	}
+
+	private static long hash(Node node) {
+		return DLI.hash(node.address().toAddressString());
+	}
+
+	private static long hash(Edge edge) {
+		return DLI.hash(edge.address().toAddressString());
+	}
+
+}
@@ -0,0 +1,112 @@
+package com.kcsl.loopmodel.algorithms;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.ensoftcorp.atlas.core.db.graph.Node;
+import com.ensoftcorp.atlas.core.db.set.AtlasSet;
+
+/**
+ * Remembers which control flow roots {@link DLI} has already analyzed, along
+ * with a fingerprint of the CFG of each root at the time it was analyzed and
+ * the loops that were recovered for it.
+ * <p>
+ * A root only needs to be analyzed again if it is new or its fingerprint has
+ * changed, for example after a partial re-index of the workspace.
+ */
+class LoopRecoveryCache {
+
+	private static class Entry {
+		final long fingerprint;
+		final LoopStructure structure;
+
+		Entry(long fingerprint, LoopStructure structure) {
+			this.fingerprint = fingerprint;
+			this.structure = structure;
+		}
+	}
+
+	private final Map<Node, Entry> entries = new HashMap<Node, Entry>();
+
+	/**
+	 * Returns true if the given root was analyzed with the same fingerprint.
+	 *
+	 * @param root
+	 * @param fingerprint
+	 * @return
+	 */
+	boolean isCurrent(Node root, long fingerprint) {
+		Entry entry = entries.get(root);
+		return entry != null && entry.fingerprint == fingerprint;
+	}
+
+	/**
+	 * Returns the loops previously recovered for the given root or null if
+	 * the root has not been analyzed.
+	 *
+	 * @param root
+	 * @return
+	 */
+	LoopStructure get(Node root) {
+		Entry entry = entries.get(root);
+		return entry == null ? null : entry.structure;
+	}
+
+	void put(Node root, long fingerprint, LoopStructure structure) {
+		entries.put(root, new Entry(fingerprint, structure));
+	}
+
+	/**
+	 * Forgets all the roots that are no longer part of the universe.
+	 *
+	 * @param roots The current control flow roots
+	 * @return true if any root was forgotten
+	 */
+	boolean retainAll(AtlasSet<Node> roots) {
+		boolean changed = false;
+		Iterator<Node> iterator = entries.keySet().iterator();
+		while (iterator.hasNext()) {
+			if (!roots.contains(iterator.next())) {
+				iterator.remove();
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	Collection<LoopStructure> structures() {
+		Collection<LoopStructure> structures = new ArrayList<LoopStructure>(entries.size());
+		for (Entry entry : entries.values()) {
+			structures.add(entry.structure);
+		}
+		return structures;
+	}
+
+	/**
+	 * Writes all the cached loops to a {@link LoopIndex} file.
+	 *
+	 * @param file
+	 * @param current The currently mapped index of the file, null if there is none
+	 * @throws IOException
+	 */
+	void write(Path file, LoopIndex current) throws IOException {
+		long[] fingerprints = new long[entries.size()];
+		List<LoopStructure> structures = new ArrayList<LoopStructure>(entries.size());
+		for (Entry entry : entries.values()) {
+			fingerprints[structures.size()] = entry.fingerprint;
+			structures.add(entry.structure);
+		}
+		LoopIndex.write(file, current, fingerprints, structures);
+	}
+
+	void clear() {
+		entries.clear();
+	}
+
+}
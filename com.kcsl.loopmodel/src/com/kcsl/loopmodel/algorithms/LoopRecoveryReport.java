@@ -0,0 +1,270 @@
+package com.kcsl.loopmodel.algorithms;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.ensoftcorp.atlas.core.db.graph.Node;
+import com.ensoftcorp.atlas.core.xcsg.XCSG;
+
+/**
+ * Per function statistics of a single {@link DLI} run, used to find the
+ * functions that dominate the time spent recovering loops.
+ * <p>
+ * Only the control flow roots that were analyzed in the run are reported,
+ * roots that were unchanged since a previous run are not.
+ */
+public class LoopRecoveryReport {
+
+	/**
+	 * The statistics of a single control flow root
+	 */
+	public static class FunctionStatistics {
+		private final Node root;
+		private final long snapshotNanos;
+		private final long dfsNanos;
+		private final int nodeCount;
+		private final int edgeCount;
+		private final int loopCount;
+		private final int irreducibleLoopCount;
+		private final long tagLheadSteps;
+		private final boolean fromIndex;
+
+		FunctionStatistics(Node root, long snapshotNanos, long dfsNanos, int nodeCount, int edgeCount, int loopCount,
+				int irreducibleLoopCount, long tagLheadSteps, boolean fromIndex) {
+			this.root = root;
+			this.snapshotNanos = snapshotNanos;
+			this.dfsNanos = dfsNanos;
+			this.nodeCount = nodeCount;
+			this.edgeCount = edgeCount;
+			this.loopCount = loopCount;
+			this.irreducibleLoopCount = irreducibleLoopCount;
+			this.tagLheadSteps = tagLheadSteps;
+			this.fromIndex = fromIndex;
+		}
+
+		public Node getRoot() {
+			return root;
+		}
+
+		/**
+		 * Returns the name of the function containing the root
+		 */
+		public String getFunctionName() {
+			Node function = DLI.getContainer(root);
+			if (function == null) {
+				function = root;
+			}
+			Object name = function.getAttr(XCSG.name);
+			return name == null ? function.address().toAddressString() : name.toString();
+		}
+
+		/**
+		 * Returns the time spent taking the snapshot of the CFG in nanoseconds
+		 */
+		public long getSnapshotTime() {
+			return snapshotNanos;
+		}
+
+		/**
+		 * Returns the time spent in the loop DFS and recording its results in
+		 * nanoseconds, or the time spent decoding the loops if they were read
+		 * from the loop index.
+		 */
+		public long getDFSTime() {
+			return dfsNanos;
+		}
+
+		public int getNodeCount() {
+			return nodeCount;
+		}
+
+		public int getEdgeCount() {
+			return edgeCount;
+		}
+
+		public int getLoopCount() {
+			return loopCount;
+		}
+
+		public int getIrreducibleLoopCount() {
+			return irreducibleLoopCount;
+		}
+
+		/**
+		 * Returns the total number of steps taken walking the loop header
+		 * chains in tag_lhead, 0 if the loops were read from the loop index.
+		 */
+		public long getTagLheadSteps() {
+			return tagLheadSteps;
+		}
+
+		/**
+		 * Returns true if the loops were read from the loop index instead of
+		 * being recovered.
+		 */
+		public boolean isFromIndex() {
+			return fromIndex;
+		}
+	}
+
+	/** Orders functions by descending DFS time */
+	private static final Comparator<FunctionStatistics> SLOWEST_FIRST = new Comparator<FunctionStatistics>() {
+		@Override
+		public int compare(FunctionStatistics a, FunctionStatistics b) {
+			return Long.compare(b.dfsNanos, a.dfsNanos);
+		}
+	};
+
+	private final List<FunctionStatistics> statistics;
+	private final Map<Node, FunctionStatistics> statisticsByRoot;
+	private final long wallNanos;
+
+	LoopRecoveryReport(List<FunctionStatistics> statistics, long wallNanos) {
+		this.statistics = Collections.unmodifiableList(new ArrayList<FunctionStatistics>(statistics));
+		this.statisticsByRoot = new HashMap<Node, FunctionStatistics>(statistics.size() * 2);
+		for (FunctionStatistics function : statistics) {
+			statisticsByRoot.put(function.root, function);
+		}
+		this.wallNanos = wallNanos;
+	}
+
+	/**
+	 * Returns the statistics of every analyzed root in no particular order
+	 */
+	public List<FunctionStatistics> getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * Returns the statistics of the given root or null if it was not analyzed in this run
+	 *
+	 * @param root
+	 * @return
+	 */
+	public FunctionStatistics getStatistics(Node root) {
+		return statisticsByRoot.get(root);
+	}
+
+	/**
+	 * Returns the elapsed time of the whole run in nanoseconds
+	 */
+	public long getWallTime() {
+		return wallNanos;
+	}
+
+	/**
+	 * Returns the DFS time summed over all the analyzed roots in nanoseconds
+	 */
+	public long getTotalDFSTime() {
+		long total = 0;
+		for (FunctionStatistics function : statistics) {
+			total += function.dfsNanos;
+		}
+		return total;
+	}
+
+	/**
+	 * Returns the <code>n</code> functions with the longest DFS time, slowest first
+	 *
+	 * @param n
+	 * @return
+	 */
+	public List<FunctionStatistics> getSlowest(int n) {
+		List<FunctionStatistics> sorted = new ArrayList<FunctionStatistics>(statistics);
+		Collections.sort(sorted, SLOWEST_FIRST);
+		return sorted.subList(0, Math.min(Math.max(n, 0), sorted.size()));
+	}
+
+	/**
+	 * Returns a histogram of the DFS time of the analyzed roots. Bucket 0
+	 * counts the functions that took less than 2 microseconds, bucket i > 0
+	 * counts the functions that took [2^i, 2^(i+1)) microseconds.
+	 *
+	 * @return
+	 */
+	public long[] getHistogram() {
+		long[] buckets = new long[1];
+		for (FunctionStatistics function : statistics) {
+			int bucket = bucket(function.dfsNanos);
+			if (bucket >= buckets.length) {
+				long[] grown = new long[bucket + 1];
+				System.arraycopy(buckets, 0, grown, 0, buckets.length);
+				buckets = grown;
+			}
+			buckets[bucket]++;
+		}
+		return buckets;
+	}
+
+	private static int bucket(long nanos) {
+		long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+		return micros < 2 ? 0 : 63 - Long.numberOfLeadingZeros(micros);
+	}
+
+	/**
+	 * Returns a human readable summary with the histogram and the
+	 * <code>topN</code> slowest functions.
+	 *
+	 * @param topN
+	 * @return
+	 */
+	public String summarize(int topN) {
+		StringBuilder result = new StringBuilder();
+		result.append(String.format("Loop recovery: %d functions in %d ms, %d ms of DFS time%n", statistics.size(),
+				TimeUnit.NANOSECONDS.toMillis(wallNanos), TimeUnit.NANOSECONDS.toMillis(getTotalDFSTime())));
+		long[] histogram = getHistogram();
+		if (!statistics.isEmpty()) {
+			result.append("DFS time histogram:").append(System.lineSeparator());
+			for (int i = 0; i < histogram.length; i++) {
+				String range = i == 0 ? "< 2 us" : String.format("%d-%d us", 1L << i, 1L << (i + 1));
+				result.append(String.format("  %16s: %d%n", range, histogram[i]));
+			}
+		}
+		List<FunctionStatistics> slowest = getSlowest(topN);
+		if (!slowest.isEmpty()) {
+			result.append("Slowest functions:").append(System.lineSeparator());
+			for (FunctionStatistics function : slowest) {
+				result.append(String.format("  %s: %.3f ms, %d nodes, %d edges, %d loops (%d irreducible), %d tag_lhead steps%n",
+						function.getFunctionName(), function.dfsNanos / 1e6, function.nodeCount, function.edgeCount,
+						function.loopCount, function.irreducibleLoopCount, function.tagLheadSteps));
+			}
+		}
+		return result.toString();
+	}
+
+	@Override
+	public String toString() {
+		return summarize(10);
+	}
+
+	/**
+	 * Writes the statistics of every analyzed root as CSV, slowest first.
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public void write(Path file) throws IOException {
+		List<FunctionStatistics> sorted = getSlowest(statistics.size());
+		try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+			writer.write("function,root,snapshot_ns,dfs_ns,nodes,edges,loops,irreducible_loops,tag_lhead_steps,from_index");
+			writer.newLine();
+			for (FunctionStatistics function : sorted) {
+				writer.write(function.getFunctionName() + "," + function.root.address().toAddressString() + ","
+						+ function.snapshotNanos + "," + function.dfsNanos + "," + function.nodeCount + ","
+						+ function.edgeCount + "," + function.loopCount + "," + function.irreducibleLoopCount + ","
+						+ function.tagLheadSteps + "," + function.fromIndex);
+				writer.newLine();
+			}
+		}
+	}
+
+}
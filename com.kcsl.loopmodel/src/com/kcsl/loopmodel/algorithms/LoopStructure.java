@@ -0,0 +1,54 @@
+package com.kcsl.loopmodel.algorithms;
+
+import com.ensoftcorp.atlas.core.db.graph.Edge;
+import com.ensoftcorp.atlas.core.db.graph.Node;
+
+/**
+ * The loops recovered by {@link DLI} for a single control flow root.
+ * <p>
+ * Worker threads only record their results in instances of this class, the
+ * universe graph is modified afterwards in a single pass, see
+ * {@link DLI#recoverLoops(org.eclipse.core.runtime.IProgressMonitor, int)}.
+ */
+class LoopStructure {
+
+	/** The control flow root that was analyzed */
+	final Node root;
+
+	/** The loop headers, sorted by source correspondence */
+	final Node[] loopHeaders;
+
+	/** The {@link DLI.CFGNode#LOOP_HEADER_ID} of the loop header at the same index */
+	final String[] loopHeaderIDs;
+
+	/** Whether the loop header at the same index is an irreducible loop */
+	final boolean[] irreducible;
+
+	/** The nesting depth of the loop header at the same index, starting at 1 for outermost loops */
+	final int[] loopDepths;
+
+	/** The nodes inside a loop, including nested loop headers */
+	final Node[] members;
+
+	/** The index into {@link #loopHeaders} of the innermost loop header of the member at the same index */
+	final int[] memberLoopHeaders;
+
+	final Edge[] loopbackEdges;
+	final Edge[] reentryEdges;
+	final Node[] reentryNodes;
+
+	LoopStructure(Node root, Node[] loopHeaders, String[] loopHeaderIDs, boolean[] irreducible, int[] loopDepths,
+			Node[] members, int[] memberLoopHeaders, Edge[] loopbackEdges, Edge[] reentryEdges, Node[] reentryNodes) {
+		this.root = root;
+		this.loopHeaders = loopHeaders;
+		this.loopHeaderIDs = loopHeaderIDs;
+		this.irreducible = irreducible;
+		this.loopDepths = loopDepths;
+		this.members = members;
+		this.memberLoopHeaders = memberLoopHeaders;
+		this.loopbackEdges = loopbackEdges;
+		this.reentryEdges = reentryEdges;
+		this.reentryNodes = reentryNodes;
+	}
+
+}
@@ -0,0 +1,29 @@
+package com.kcsl.loopmodel.algorithms;
+
+/**
+ * A directed graph over the node ordinals 0..n-1, with the outgoing edges of
+ * each node in compressed sparse row form. This is all {@link LoopDFS} needs
+ * to know about a control flow graph, so the loop identification core can run
+ * without a graph database.
+ */
+interface OrdinalGraph {
+
+	/**
+	 * Returns the number of nodes n
+	 */
+	int nodeCount();
+
+	/**
+	 * Returns the edge offsets, the edges of node i are
+	 * edgeTargets()[edgeOffsets()[i]..edgeOffsets()[i+1]). The array may be
+	 * longer than n+1.
+	 */
+	int[] edgeOffsets();
+
+	/**
+	 * Returns the target ordinal of each edge, the array may be longer than the
+	 * number of edges.
+	 */
+	int[] edgeTargets();
+
+}
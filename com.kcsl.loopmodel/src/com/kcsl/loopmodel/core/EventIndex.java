@@ -0,0 +1,163 @@
+package com.kcsl.loopmodel.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.ensoftcorp.atlas.core.db.graph.Edge;
+import com.ensoftcorp.atlas.core.db.graph.Node;
+import com.ensoftcorp.atlas.core.db.set.AtlasSet;
+import com.ensoftcorp.atlas.core.query.Q;
+import com.ensoftcorp.atlas.core.script.Common;
+import com.ensoftcorp.atlas.core.xcsg.XCSG;
+import com.ensoftcorp.open.c.commons.analysis.CommonQueries;
+
+/**
+ * The events invoked by every callsite of the application, resolved once per
+ * run.
+ * <p>
+ * An event is a set of function names, such as the configured allocation
+ * functions. Event <code>i</code> of a callsite is bit <code>i</code> of its
+ * event mask, the mask is set if any function invoked by the callsite is in
+ * the event's set. Callsites that invoke no event function are not stored, so
+ * their mask is 0.
+ * <p>
+ * With {@link EventSummaries} a callsite also has the events of the wrappers
+ * it invokes, functions that are not event functions but may cause an event
+ * through their callees. Those events are reported by
+ * {@link #getWrapperEvents(Node)} as well.
+ */
+class EventIndex {
+
+	/** The maximum number of events of an index, one bit of the event mask each */
+	static final int MAX_EVENTS = Long.SIZE;
+
+	private final Map<Node, Long> callsiteEvents = new HashMap<Node, Long>();
+
+	/** The events each callsite only causes through a wrapper */
+	private final Map<Node, Long> callsiteWrapperEvents = new HashMap<Node, Long>();
+
+	/** The name of the first function of each event found for each callsite */
+	private final List<Map<Node, String>> callsiteTargetNames;
+
+	/**
+	 * Resolves the callsites invoking any function of the given events, one
+	 * query per event.
+	 *
+	 * @param invokedEdges The edges from callsites to the functions they invoke
+	 * @param events The function names of each event
+	 */
+	EventIndex(Q invokedEdges, List<? extends Collection<String>> events) {
+		this(invokedEdges, events, null);
+	}
+
+	/**
+	 * Resolves the callsites invoking any function of the given events, one
+	 * query per event, and the callsites invoking any wrapper of the given
+	 * summaries, in one more query.
+	 *
+	 * @param invokedEdges The edges from callsites to the functions they invoke
+	 * @param events The function names of each event
+	 * @param summaries The summaries of the same events, null to index event functions only
+	 */
+	EventIndex(Q invokedEdges, List<? extends Collection<String>> events, EventSummaries summaries) {
+		if (events.size() > MAX_EVENTS) {
+			throw new IllegalArgumentException("At most " + MAX_EVENTS + " events can be indexed, got " + events.size());
+		}
+		callsiteTargetNames = new ArrayList<Map<Node, String>>(events.size());
+		for (int event = 0; event < events.size(); event++) {
+			Map<Node, String> targetNames = new HashMap<Node, String>();
+			callsiteTargetNames.add(targetNames);
+			List<String> names = new ArrayList<String>();
+			for (String name : events.get(event)) {
+				name = name.trim();
+				if (!name.isEmpty()) {
+					names.add(name);
+				}
+			}
+			if (names.isEmpty()) {
+				continue;
+			}
+			Q eventFunctions = CommonQueries.functions(names.toArray(new String[names.size()]));
+			long bit = 1L << event;
+			for (Edge invocation : invokedEdges.reverseStepOn(eventFunctions).eval().edges()) {
+				Node callsite = invocation.from();
+				Long mask = callsiteEvents.get(callsite);
+				callsiteEvents.put(callsite, mask == null ? bit : mask | bit);
+				if (!targetNames.containsKey(callsite)) {
+					targetNames.put(callsite, invocation.to().getAttr(XCSG.name).toString());
+				}
+			}
+		}
+		if (summaries == null) {
+			return;
+		}
+		AtlasSet<Node> wrappers = summaries.getWrappers();
+		if (wrappers.isEmpty()) {
+			return;
+		}
+		for (Edge invocation : invokedEdges.reverseStepOn(Common.toQ(wrappers)).eval().edges()) {
+			Node callsite = invocation.from();
+			Node wrapper = invocation.to();
+			Long direct = callsiteEvents.get(callsite);
+			long wrapperEvents = summaries.getSummary(wrapper) & ~(direct == null ? 0L : direct);
+			if (wrapperEvents == 0) {
+				continue;
+			}
+			Long mask = callsiteWrapperEvents.get(callsite);
+			callsiteWrapperEvents.put(callsite, mask == null ? wrapperEvents : mask | wrapperEvents);
+			for (long bits = wrapperEvents; bits != 0; bits &= bits - 1) {
+				Map<Node, String> targetNames = callsiteTargetNames.get(Long.numberOfTrailingZeros(bits));
+				if (!targetNames.containsKey(callsite)) {
+					targetNames.put(callsite, wrapper.getAttr(XCSG.name).toString());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the event mask of the given callsite, 0 if it invokes no event
+	 * function or wrapper
+	 *
+	 * @param callsite
+	 * @return
+	 */
+	long getEvents(Node callsite) {
+		Long mask = callsiteEvents.get(callsite);
+		Long wrapperMask = callsiteWrapperEvents.get(callsite);
+		return (mask == null ? 0L : mask) | (wrapperMask == null ? 0L : wrapperMask);
+	}
+
+	/**
+	 * Returns the events the given callsite only causes through a wrapper
+	 *
+	 * @param callsite
+	 * @return
+	 */
+	long getWrapperEvents(Node callsite) {
+		Long mask = callsiteWrapperEvents.get(callsite);
+		return mask == null ? 0L : mask;
+	}
+
+	/**
+	 * Returns the name of the function of the given event invoked by the given
+	 * callsite, null if it invokes none
+	 *
+	 * @param callsite
+	 * @param event
+	 * @return
+	 */
+	String getTargetName(Node callsite, int event) {
+		return callsiteTargetNames.get(event).get(callsite);
+	}
+
+	/**
+	 * Returns the number of events of the index
+	 */
+	int getEventCount() {
+		return callsiteTargetNames.size();
+	}
+
+}
@@ -0,0 +1,117 @@
+package com.kcsl.loopmodel.core;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.ensoftcorp.atlas.core.log.Log;
+import com.kcsl.loopmodel.MemoryVerificationProperties;
+
+/**
+ * A pair of events whose placement around loops is classified, such as an
+ * allocation and the matching free, or a lock and the matching unlock.
+ * <p>
+ * The memory pair writes to the configured result files and graph
+ * directories. Any other pair writes to the same result files prefixed with
+ * the pair name, and saves its graphs under its own graphs directory.
+ */
+class EventPair {
+
+	static final String MEMORY = "memory";
+	static final String SPIN = "spin";
+	static final String MUTEX = "mutex";
+
+	private final String name;
+	private final List<String> firstEventFunctions;
+	private final List<String> secondEventFunctions;
+
+	/** The directory containing the category graph directories of the pair, null for the memory pair */
+	private final Path graphsDirectory;
+
+	private EventPair(String name, List<String> firstEventFunctions, List<String> secondEventFunctions, Path graphsDirectory) {
+		this.name = name;
+		this.firstEventFunctions = firstEventFunctions;
+		this.secondEventFunctions = secondEventFunctions;
+		this.graphsDirectory = graphsDirectory;
+	}
+
+	/**
+	 * Returns the pairs configured by "event_pairs", in configuration order
+	 */
+	static List<EventPair> getConfiguredPairs() {
+		List<EventPair> pairs = new ArrayList<EventPair>();
+		for (String pairName : MemoryVerificationProperties.getEventPairs()) {
+			pairName = pairName.trim();
+			if (pairName.equals(MEMORY)) {
+				pairs.add(new EventPair(MEMORY, MemoryVerificationProperties.getKMallocFunctionCalls(),
+						MemoryVerificationProperties.getKfreeFunctionCalls(), null));
+			} else if (pairName.equals(SPIN) && MemoryVerificationProperties.getSpinLockFunctionCalls() != null) {
+				pairs.add(new EventPair(SPIN, MemoryVerificationProperties.getSpinLockFunctionCalls(),
+						MemoryVerificationProperties.getSpinUnlockFunctionCalls(), MemoryVerificationProperties.getSpinGraphsOutputDirectory()));
+			} else if (pairName.equals(MUTEX) && MemoryVerificationProperties.getMutexLockFunctionCalls() != null) {
+				pairs.add(new EventPair(MUTEX, MemoryVerificationProperties.getMutexLockFunctionCalls(),
+						MemoryVerificationProperties.getMutexUnlockFunctionCalls(), MemoryVerificationProperties.getMutexGraphsOutputDirectory()));
+			} else if (!pairName.isEmpty()) {
+				Log.warning("Skipping unknown or unconfigured event pair: " + pairName);
+			}
+		}
+		if (pairs.size() * 2 > EventIndex.MAX_EVENTS) {
+			throw new IllegalArgumentException("At most " + EventIndex.MAX_EVENTS / 2 + " event pairs can be classified");
+		}
+		return pairs;
+	}
+
+	String getName() {
+		return name;
+	}
+
+	boolean isMemory() {
+		return graphsDirectory == null;
+	}
+
+	/**
+	 * Returns the names of the functions of the first event, such as the allocation functions
+	 */
+	List<String> getFirstEventFunctions() {
+		return firstEventFunctions;
+	}
+
+	/**
+	 * Returns the names of the functions of the second event, such as the free functions
+	 */
+	List<String> getSecondEventFunctions() {
+		return secondEventFunctions;
+	}
+
+	/**
+	 * Returns the result file of this pair corresponding to the given memory result file
+	 *
+	 * @param memoryResultFile
+	 * @return
+	 */
+	Path getResultFile(Path memoryResultFile) {
+		if (isMemory()) {
+			return memoryResultFile;
+		}
+		return memoryResultFile.resolveSibling(name + "_" + memoryResultFile.getFileName());
+	}
+
+	/**
+	 * Returns the graphs directory of this pair corresponding to the given memory graphs directory
+	 *
+	 * @param memoryGraphsDirectory
+	 * @return
+	 */
+	Path getGraphsDirectory(Path memoryGraphsDirectory) {
+		if (isMemory()) {
+			return memoryGraphsDirectory;
+		}
+		return graphsDirectory.resolve(name + "_" + memoryGraphsDirectory.getFileName());
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+}
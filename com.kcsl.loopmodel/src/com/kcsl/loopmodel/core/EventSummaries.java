@@ -0,0 +1,411 @@
+package com.kcsl.loopmodel.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import com.ensoftcorp.atlas.core.db.graph.Edge;
+import com.ensoftcorp.atlas.core.db.graph.Graph;
+import com.ensoftcorp.atlas.core.db.graph.Node;
+import com.ensoftcorp.atlas.core.db.set.AtlasHashSet;
+import com.ensoftcorp.atlas.core.db.set.AtlasSet;
+import com.ensoftcorp.atlas.core.log.Log;
+import com.ensoftcorp.atlas.core.query.Q;
+import com.ensoftcorp.atlas.core.xcsg.XCSG;
+import com.kcsl.loopmodel.algorithms.DLI;
+
+/**
+ * The events each function may cause, directly or through the functions it
+ * calls, such as an allocation wrapper that may allocate.
+ * <p>
+ * The summary of a function is an {@link EventIndex} event mask: an event
+ * function has its own events, any other function the events of everything
+ * it calls. Summaries are computed bottom-up over the strongly connected
+ * components of the call graph, callees before callers, with all the
+ * functions of a component sharing one summary. The components are grouped
+ * into levels by their longest call chain to a leaf component, the components
+ * of a level only depend on lower levels and are summarized in parallel.
+ * <p>
+ * Event functions are summarized by their own events only, the calls made
+ * inside an allocator do not make it a free wrapper.
+ */
+class EventSummaries {
+
+	/** Levels with fewer components are summarized on the calling thread */
+	private static final int PARALLEL_LEVEL_THRESHOLD = 256;
+
+	/** The summaries of the last call graph and event configuration, reused until either changes */
+	private static EventSummaries cache;
+
+	private final List<List<String>> events;
+	private final long callGraphFingerprint;
+
+	private final Map<Node, Integer> ordinals;
+	private final Node[] functions;
+	private final long[] summaries;
+	private final boolean[] eventFunctions;
+	private final int componentCount;
+
+	/**
+	 * Returns the summaries of the given call graph and events, computed on
+	 * <code>parallelism</code> workers or reused from the last call if neither
+	 * the events nor the fingerprint of the call graph changed.
+	 *
+	 * @param callEdges The call edges between functions
+	 * @param events The function names of each event
+	 * @param parallelism
+	 * @return
+	 */
+	static EventSummaries get(Q callEdges, List<? extends Collection<String>> events, int parallelism) {
+		Graph callGraph = callEdges.eval();
+		List<List<String>> eventNames = normalize(events);
+		long callGraphFingerprint = fingerprint(callGraph);
+		synchronized (EventSummaries.class) {
+			if (cache != null && cache.events.equals(eventNames) && cache.callGraphFingerprint == callGraphFingerprint) {
+				return cache;
+			}
+			long start = System.nanoTime();
+			cache = new EventSummaries(callGraph, eventNames, callGraphFingerprint, parallelism);
+			Log.info("Summarized " + cache.functions.length + " functions in " + cache.componentCount
+					+ " call graph components in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+			return cache;
+		}
+	}
+
+	/**
+	 * An order independent hash of the addresses of the functions and calls
+	 * of the given call graph. Addresses change when the program is indexed
+	 * again, so summaries are never reused across indexes.
+	 *
+	 * @param callGraph
+	 * @return
+	 */
+	private static long fingerprint(Graph callGraph) {
+		long fingerprint = 0;
+		for (Node function : callGraph.nodes()) {
+			fingerprint += DLI.mix(DLI.hash(function.address().toAddressString()));
+		}
+		for (Edge call : callGraph.edges()) {
+			fingerprint += DLI.mix(DLI.hash(call.from().address().toAddressString()) * 31 + DLI.hash(call.to().address().toAddressString()));
+		}
+		return fingerprint;
+	}
+
+	private EventSummaries(Graph callGraph, List<List<String>> events, long callGraphFingerprint, int parallelism) {
+		this.events = events;
+		this.callGraphFingerprint = callGraphFingerprint;
+
+		// number the functions and snapshot the call graph, event functions keep no outgoing calls
+		ordinals = new HashMap<Node, Integer>();
+		List<Node> functionList = new ArrayList<Node>();
+		for (Node function : callGraph.nodes()) {
+			ordinals.put(function, functionList.size());
+			functionList.add(function);
+		}
+		int n = functionList.size();
+		functions = functionList.toArray(new Node[n]);
+		summaries = new long[n];
+		eventFunctions = new boolean[n];
+		long[] direct = new long[n];
+		Map<String, Long> eventsByName = new HashMap<String, Long>();
+		for (int event = 0; event < events.size(); event++) {
+			for (String name : events.get(event)) {
+				Long mask = eventsByName.get(name);
+				eventsByName.put(name, (mask == null ? 0L : mask) | (1L << event));
+			}
+		}
+		for (int f = 0; f < n; f++) {
+			Long mask = eventsByName.get(functions[f].getAttr(XCSG.name).toString());
+			if (mask != null) {
+				direct[f] = mask;
+				eventFunctions[f] = true;
+			}
+		}
+		int[] edgeOffsets = new int[n + 1];
+		List<int[]> calls = new ArrayList<int[]>();
+		for (Edge call : callGraph.edges()) {
+			Integer caller = ordinals.get(call.from());
+			Integer callee = ordinals.get(call.to());
+			if (caller != null && callee != null && !eventFunctions[caller]) {
+				calls.add(new int[] { caller, callee });
+				edgeOffsets[caller + 1]++;
+			}
+		}
+		for (int f = 0; f < n; f++) {
+			edgeOffsets[f + 1] += edgeOffsets[f];
+		}
+		int[] edgeTargets = new int[calls.size()];
+		int[] cursors = new int[n];
+		for (int[] call : calls) {
+			edgeTargets[edgeOffsets[call[0]] + cursors[call[0]]++] = call[1];
+		}
+
+		int[] components = new int[n];
+		componentCount = findComponents(edgeOffsets, edgeTargets, components);
+
+		// component members, components are numbered callees first
+		int[] memberOffsets = new int[componentCount + 1];
+		for (int f = 0; f < n; f++) {
+			memberOffsets[components[f] + 1]++;
+		}
+		for (int c = 0; c < componentCount; c++) {
+			memberOffsets[c + 1] += memberOffsets[c];
+		}
+		int[] members = new int[n];
+		int[] memberCursors = new int[componentCount];
+		for (int f = 0; f < n; f++) {
+			members[memberOffsets[components[f]] + memberCursors[components[f]]++] = f;
+		}
+
+		// the level of a component is one more than the highest level of its callees
+		int[] levels = new int[componentCount];
+		int levelCount = 0;
+		for (int c = 0; c < componentCount; c++) {
+			int level = 0;
+			for (int m = memberOffsets[c]; m < memberOffsets[c + 1]; m++) {
+				int f = members[m];
+				for (int e = edgeOffsets[f]; e < edgeOffsets[f + 1]; e++) {
+					int callee = components[edgeTargets[e]];
+					if (callee != c) {
+						level = Math.max(level, levels[callee] + 1);
+					}
+				}
+			}
+			levels[c] = level;
+			levelCount = Math.max(levelCount, level + 1);
+		}
+		int[] levelOffsets = new int[levelCount + 1];
+		for (int c = 0; c < componentCount; c++) {
+			levelOffsets[levels[c] + 1]++;
+		}
+		for (int level = 0; level < levelCount; level++) {
+			levelOffsets[level + 1] += levelOffsets[level];
+		}
+		int[] levelComponents = new int[componentCount];
+		int[] levelCursors = new int[levelCount];
+		for (int c = 0; c < componentCount; c++) {
+			levelComponents[levelOffsets[levels[c]] + levelCursors[levels[c]]++] = c;
+		}
+
+		long[] componentSummaries = new long[componentCount];
+		Summarizer summarizer = new Summarizer(direct, edgeOffsets, edgeTargets, components, members, memberOffsets, levelComponents, componentSummaries);
+		int workers = Math.max(1, parallelism);
+		ForkJoinPool pool = workers > 1 ? new ForkJoinPool(workers) : null;
+		try {
+			for (int level = 0; level < levelCount; level++) {
+				int from = levelOffsets[level];
+				int to = levelOffsets[level + 1];
+				if (pool == null || to - from < PARALLEL_LEVEL_THRESHOLD) {
+					summarizer.summarize(from, to);
+					continue;
+				}
+				List<Future<?>> tasks = new ArrayList<Future<?>>(workers);
+				int chunk = (to - from + workers - 1) / workers;
+				for (int start = from; start < to; start += chunk) {
+					final int chunkFrom = start;
+					final int chunkTo = Math.min(to, start + chunk);
+					tasks.add(pool.submit(new Runnable() {
+						@Override
+						public void run() {
+							summarizer.summarize(chunkFrom, chunkTo);
+						}
+					}));
+				}
+				// a level depends on every lower level, wait for the whole level
+				for (Future<?> task : tasks) {
+					try {
+						task.get();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new IllegalStateException("Interrupted while summarizing functions", e);
+					} catch (ExecutionException e) {
+						throw new IllegalStateException("Problem summarizing functions", e.getCause());
+					}
+				}
+			}
+		} finally {
+			if (pool != null) {
+				pool.shutdown();
+			}
+		}
+		for (int f = 0; f < n; f++) {
+			summaries[f] = componentSummaries[components[f]];
+		}
+	}
+
+	/**
+	 * Summarizes ranges of the components of a level, every range only writes
+	 * the summaries of its own components.
+	 */
+	private static class Summarizer {
+		private final long[] direct;
+		private final int[] edgeOffsets, edgeTargets, components, members, memberOffsets, levelComponents;
+		private final long[] componentSummaries;
+
+		Summarizer(long[] direct, int[] edgeOffsets, int[] edgeTargets, int[] components, int[] members, int[] memberOffsets,
+				int[] levelComponents, long[] componentSummaries) {
+			this.direct = direct;
+			this.edgeOffsets = edgeOffsets;
+			this.edgeTargets = edgeTargets;
+			this.components = components;
+			this.members = members;
+			this.memberOffsets = memberOffsets;
+			this.levelComponents = levelComponents;
+			this.componentSummaries = componentSummaries;
+		}
+
+		void summarize(int from, int to) {
+			for (int i = from; i < to; i++) {
+				int c = levelComponents[i];
+				long summary = 0L;
+				for (int m = memberOffsets[c]; m < memberOffsets[c + 1]; m++) {
+					int f = members[m];
+					summary |= direct[f];
+					for (int e = edgeOffsets[f]; e < edgeOffsets[f + 1]; e++) {
+						int callee = components[edgeTargets[e]];
+						if (callee != c) {
+							summary |= componentSummaries[callee];
+						}
+					}
+				}
+				componentSummaries[c] = summary;
+			}
+		}
+	}
+
+	/**
+	 * Finds the strongly connected components with an iterative Tarjan. A
+	 * component is numbered after every component it reaches, so callees have
+	 * lower numbers than their callers.
+	 *
+	 * @return the number of components
+	 */
+	private static int findComponents(int[] edgeOffsets, int[] edgeTargets, int[] components) {
+		int n = components.length;
+		int[] indices = new int[n];
+		int[] lowLinks = new int[n];
+		boolean[] onStack = new boolean[n];
+		int[] stack = new int[n];
+		int stackSize = 0;
+		int[] callNodes = new int[n];
+		int[] callCursors = new int[n];
+		int index = 1;
+		int componentCount = 0;
+		for (int root = 0; root < n; root++) {
+			if (indices[root] != 0) {
+				continue;
+			}
+			int depth = 0;
+			callNodes[0] = root;
+			callCursors[0] = edgeOffsets[root];
+			indices[root] = lowLinks[root] = index++;
+			stack[stackSize++] = root;
+			onStack[root] = true;
+			while (depth >= 0) {
+				int v = callNodes[depth];
+				if (callCursors[depth] < edgeOffsets[v + 1]) {
+					int w = edgeTargets[callCursors[depth]++];
+					if (indices[w] == 0) {
+						indices[w] = lowLinks[w] = index++;
+						stack[stackSize++] = w;
+						onStack[w] = true;
+						depth++;
+						callNodes[depth] = w;
+						callCursors[depth] = edgeOffsets[w];
+					} else if (onStack[w]) {
+						lowLinks[v] = Math.min(lowLinks[v], indices[w]);
+					}
+					continue;
+				}
+				if (lowLinks[v] == indices[v]) {
+					int w;
+					do {
+						w = stack[--stackSize];
+						onStack[w] = false;
+						components[w] = componentCount;
+					} while (w != v);
+					componentCount++;
+				}
+				depth--;
+				if (depth >= 0) {
+					int parent = callNodes[depth];
+					lowLinks[parent] = Math.min(lowLinks[parent], lowLinks[v]);
+				}
+			}
+		}
+		return componentCount;
+	}
+
+	private static List<List<String>> normalize(List<? extends Collection<String>> events) {
+		List<List<String>> eventNames = new ArrayList<List<String>>(events.size());
+		for (Collection<String> names : events) {
+			List<String> trimmed = new ArrayList<String>();
+			for (String name : names) {
+				name = name.trim();
+				if (!name.isEmpty()) {
+					trimmed.add(name);
+				}
+			}
+			eventNames.add(trimmed);
+		}
+		return eventNames;
+	}
+
+	/**
+	 * Returns the event mask of the given function, 0 if it causes no event
+	 * or is not in the call graph
+	 *
+	 * @param function
+	 * @return
+	 */
+	long getSummary(Node function) {
+		Integer ordinal = ordinals.get(function);
+		return ordinal == null ? 0L : summaries[ordinal];
+	}
+
+	/**
+	 * Returns true if the given function is itself a function of an event
+	 *
+	 * @param function
+	 * @return
+	 */
+	boolean isEventFunction(Node function) {
+		Integer ordinal = ordinals.get(function);
+		return ordinal != null && eventFunctions[ordinal];
+	}
+
+	/**
+	 * Returns the functions that may cause an event without being event
+	 * functions themselves
+	 */
+	AtlasSet<Node> getWrappers() {
+		AtlasSet<Node> wrappers = new AtlasHashSet<Node>();
+		for (int f = 0; f < functions.length; f++) {
+			if (summaries[f] != 0 && !eventFunctions[f]) {
+				wrappers.add(functions[f]);
+			}
+		}
+		return wrappers;
+	}
+
+	/**
+	 * Returns the number of wrappers of each event
+	 */
+	int[] getWrapperCounts() {
+		int[] counts = new int[events.size()];
+		for (int f = 0; f < functions.length; f++) {
+			if (!eventFunctions[f]) {
+				for (long bits = summaries[f]; bits != 0; bits &= bits - 1) {
+					counts[Long.numberOfTrailingZeros(bits)]++;
+				}
+			}
+		}
+		return counts;
+	}
+
+}
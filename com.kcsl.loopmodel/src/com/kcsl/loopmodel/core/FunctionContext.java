@@ -0,0 +1,235 @@
+package com.kcsl.loopmodel.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.ensoftcorp.atlas.core.db.graph.Edge;
+import com.ensoftcorp.atlas.core.db.graph.Graph;
+import com.ensoftcorp.atlas.core.db.graph.Node;
+import com.ensoftcorp.atlas.core.db.set.AtlasHashSet;
+import com.ensoftcorp.atlas.core.db.set.AtlasSet;
+import com.ensoftcorp.atlas.core.query.Q;
+import com.ensoftcorp.atlas.core.script.Common;
+import com.ensoftcorp.atlas.core.xcsg.XCSG;
+import com.ensoftcorp.open.c.commons.analysis.CommonQueries;
+import com.kcsl.loopmodel.algorithms.DLI;
+import com.kcsl.loopmodel.algorithms.LoopForest;
+
+/**
+ * The per function data needed to verify the loops of a function, computed
+ * once per function rather than once per loop.
+ * <p>
+ * The CFG is evaluated when the context is created, everything else is
+ * computed on first use and kept for the lifetime of the context. A context is
+ * not thread safe, parallel verification creates one per function task.
+ */
+class FunctionContext {
+
+	/**
+	 * A size bounded cache of function contexts, evicting the least recently
+	 * used function. Loops are verified function by function, so a small
+	 * cache is enough for every function's data to be computed once.
+	 */
+	static class Cache {
+		private final Map<Node, FunctionContext> contexts;
+		private final EventIndex eventIndex;
+		private final LoopForest loopForest;
+
+		Cache(final int capacity, EventIndex eventIndex, LoopForest loopForest) {
+			this.eventIndex = eventIndex;
+			this.loopForest = loopForest;
+			this.contexts = new LinkedHashMap<Node, FunctionContext>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Node, FunctionContext> eldest) {
+					return size() > capacity;
+				}
+			};
+		}
+
+		FunctionContext get(Node function) {
+			FunctionContext context = contexts.get(function);
+			if (context == null) {
+				context = new FunctionContext(function, eventIndex, loopForest);
+				contexts.put(function, context);
+			}
+			return context;
+		}
+	}
+
+	private final Node function;
+	private final Q cfg;
+	private final Graph cfgGraph;
+	private final EventIndex eventIndex;
+	private final LoopForest loopForest;
+
+	/** The control flow node of each callsite in the function */
+	private Map<Node, Node> callsiteControlFlowNodes;
+
+	/** The callsites inside each loop of the function recovered by DLI, including the callsites of nested loops */
+	private Map<Node, List<Node>> loopCallsites;
+
+	/** The control flow nodes outside of any loop calling each event */
+	private List<AtlasSet<Node>> eventNodesOutsideLoops;
+
+	FunctionContext(Node function, EventIndex eventIndex, LoopForest loopForest) {
+		this.function = function;
+		// evaluate the CFG once, queries on the context's CFG start from the evaluated graph
+		this.cfgGraph = CommonQueries.cfg(function).eval();
+		this.cfg = Common.toQ(cfgGraph);
+		this.eventIndex = eventIndex;
+		this.loopForest = loopForest;
+	}
+
+	Node getFunction() {
+		return function;
+	}
+
+	Q getCFG() {
+		return cfg;
+	}
+
+	Graph getCFGGraph() {
+		return cfgGraph;
+	}
+
+	/**
+	 * Returns the control flow node of each callsite in the function
+	 */
+	Map<Node, Node> getCallsiteControlFlowNodes() {
+		if (callsiteControlFlowNodes == null) {
+			Map<Node, Node> controlFlowNodes = new HashMap<Node, Node>();
+			for (Node callsite : cfg.children().nodes(XCSG.CallSite).eval().nodes()) {
+				Edge contains = callsite.in(XCSG.Contains).one();
+				if (contains != null) {
+					controlFlowNodes.put(callsite, contains.from());
+				}
+			}
+			callsiteControlFlowNodes = Collections.unmodifiableMap(controlFlowNodes);
+		}
+		return callsiteControlFlowNodes;
+	}
+
+	EventIndex getEventIndex() {
+		return eventIndex;
+	}
+
+	/**
+	 * Returns the structural fingerprint of the function, a hash of its name
+	 * and source correspondence, the statements, source correspondence and
+	 * control flow edges of its CFG and the event mask of each of its
+	 * callsites, combined with the given hash of the event configuration.
+	 * <p>
+	 * The fingerprint does not depend on graph addresses or iteration order,
+	 * so it is the same for an unchanged function in a re-indexed program.
+	 *
+	 * @param configuration The hash of the classified events and options
+	 * @return
+	 */
+	long getFingerprint(long configuration) {
+		Map<Node, Long> keys = new HashMap<Node, Long>();
+		long fingerprint = DLI.mix(configuration) + DLI.mix(key(function));
+		for (Node node : cfgGraph.nodes()) {
+			long key = key(node);
+			keys.put(node, key);
+			fingerprint += DLI.mix(key);
+		}
+		for (Edge edge : cfgGraph.edges()) {
+			Long from = keys.get(edge.from());
+			Long to = keys.get(edge.to());
+			if (from != null && to != null) {
+				fingerprint += DLI.mix(from * 31 + to);
+			}
+		}
+		for (Map.Entry<Node, Node> entry : getCallsiteControlFlowNodes().entrySet()) {
+			long events = eventIndex.getEvents(entry.getKey());
+			Long cfNode = keys.get(entry.getValue());
+			if (events != 0 && cfNode != null) {
+				fingerprint += DLI.mix(cfNode ^ DLI.mix(events) ^ DLI.mix(eventIndex.getWrapperEvents(entry.getKey()) + 1));
+			}
+		}
+		return fingerprint;
+	}
+
+	private static long key(Node node) {
+		Object sourceCorrespondence = node.getAttr(XCSG.sourceCorrespondence);
+		return DLI.hash(node.getAttr(XCSG.name) + "@" + (sourceCorrespondence == null ? "<external>" : sourceCorrespondence.toString()));
+	}
+
+	/**
+	 * Returns the callsites inside the body of the given loop. The callsites
+	 * of all the loops recovered by DLI are indexed in a single pass over the
+	 * function's callsites, other loops are matched against their members.
+	 *
+	 * @param loopHeader
+	 * @param loopMembers The nodes of the loop body
+	 * @return
+	 */
+	List<Node> getCallsitesInLoop(Node loopHeader, AtlasSet<Node> loopMembers) {
+		if (!loopForest.isLoopHeader(loopHeader)) {
+			List<Node> callsites = new ArrayList<Node>();
+			for (Map.Entry<Node, Node> entry : getCallsiteControlFlowNodes().entrySet()) {
+				if (loopMembers.contains(entry.getValue())) {
+					callsites.add(entry.getKey());
+				}
+			}
+			return callsites;
+		}
+		if (loopCallsites == null) {
+			Map<Node, List<Node>> callsitesByLoop = new HashMap<Node, List<Node>>();
+			for (Map.Entry<Node, Node> entry : getCallsiteControlFlowNodes().entrySet()) {
+				Node cfNode = entry.getValue();
+				// a loop header is in its own body, any other node is in the body of its innermost loop
+				Node loop = loopForest.isLoopHeader(cfNode) ? cfNode : loopForest.getInnermostLoopHeader(cfNode);
+				for (; loop != null; loop = loopForest.getParent(loop)) {
+					List<Node> callsites = callsitesByLoop.get(loop);
+					if (callsites == null) {
+						callsites = new ArrayList<Node>();
+						callsitesByLoop.put(loop, callsites);
+					}
+					callsites.add(entry.getKey());
+				}
+			}
+			loopCallsites = callsitesByLoop;
+		}
+		List<Node> callsites = loopCallsites.get(loopHeader);
+		return callsites == null ? Collections.<Node>emptyList() : callsites;
+	}
+
+	/**
+	 * Returns the control flow nodes that are not inside any loop, neither a
+	 * loop member nor a loop header, and call a function of the given
+	 * {@link EventIndex} event. The nodes of all the
+	 * events are collected in a single pass over the function's callsites.
+	 *
+	 * @param event
+	 * @return
+	 */
+	AtlasSet<Node> getEventNodesOutsideLoops(int event) {
+		if (eventNodesOutsideLoops == null) {
+			List<AtlasSet<Node>> eventNodes = new ArrayList<AtlasSet<Node>>(eventIndex.getEventCount());
+			for (int i = 0; i < eventIndex.getEventCount(); i++) {
+				eventNodes.add(new AtlasHashSet<Node>());
+			}
+			for (Map.Entry<Node, Node> entry : getCallsiteControlFlowNodes().entrySet()) {
+				long events = eventIndex.getEvents(entry.getKey());
+				Node cfNode = entry.getValue();
+				// a loop header is inside its own loop, outermost headers are not members of any loop
+				if (events == 0 || loopForest.isLoopHeader(cfNode) || loopForest.isInLoop(cfNode)) {
+					continue;
+				}
+				for (long bits = events; bits != 0; bits &= bits - 1) {
+					eventNodes.get(Long.numberOfTrailingZeros(bits)).add(cfNode);
+				}
+			}
+			eventNodesOutsideLoops = eventNodes;
+		}
+		return eventNodesOutsideLoops.get(event);
+	}
+
+}
@@ -1,18 +1,53 @@
 package com.kcsl.loopmodel.core;
 
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.eclipse.core.runtime.NullProgressMonitor;
+
 import com.ensoftcorp.atlas.core.db.graph.Node;
+import com.ensoftcorp.atlas.core.db.set.AtlasHashSet;
+import com.ensoftcorp.atlas.core.db.set.AtlasSet;
+import com.ensoftcorp.atlas.core.log.Log;
 import com.ensoftcorp.atlas.core.query.Q;
 import com.ensoftcorp.atlas.core.script.Common;
 import com.ensoftcorp.atlas.core.xcsg.XCSG;
-import com.ensoftcorp.open.c.commons.analysis.CommonQueries;
+import com.kcsl.loopmodel.MemoryVerificationProperties;
 import com.kcsl.loopmodel.algorithms.DLI;
+import com.kcsl.loopmodel.algorithms.LoopForest;
+import com.kcsl.loopmodel.algorithms.LoopRecoveryReport;
 
 public class LoopBody {
-	Q loopChildEdges = Common.empty();
+	/** The last loop recovery report written to the report file, guarded by the class */
+	private static LoopRecoveryReport savedReport;
+
+	LoopForest loopForest;
 
 	LoopBody() {
-		DLI.recoverLoops();
-		loopChildEdges = Common.universe().edges(XCSG.LoopChild);
+		DLI.recoverLoops(new NullProgressMonitor(), MemoryVerificationProperties.getLoopRecoveryParallelism(), MemoryVerificationProperties.getLoopIndexFile(),
+				MemoryVerificationProperties.isLoopRecoveryPathCompression());
+		loopForest = DLI.getLoopForest();
+		saveLoopRecoveryReport();
+	}
+
+	private static synchronized void saveLoopRecoveryReport() {
+		Path reportFile = MemoryVerificationProperties.getLoopRecoveryReportFile();
+		LoopRecoveryReport report = DLI.getLastReport();
+		// the report only changes when loops were recovered again
+		if (reportFile == null || report == null || report == savedReport) {
+			return;
+		}
+		savedReport = report;
+		try {
+			MemoryVerificationProperties.checkOrCreatedirectory();
+			report.write(reportFile);
+		} catch (IOException e) {
+			Log.warning("Unable to save loop recovery report " + reportFile, e);
+		}
+	}
+
+	public LoopForest getLoopForest() {
+		return loopForest;
 	}
 
 	public static Q getLB(Q header, Q cfg) {
@@ -20,7 +55,22 @@ public class LoopBody {
 		return lb.getLoopBody(header, cfg);
 	}
 
+	/**
+	 * Returns the body of the given loop, its header and every node whose
+	 * innermost loop is the loop or a loop nested in it, with the control flow
+	 * edges between them. Loops recovered by DLI are read from the loop
+	 * forest, any other loop falls back to a reachability query over the CFG.
+	 * 
+	 * @param header
+	 * @param cfg
+	 * @return
+	 */
 	public Q getLoopBody(Q header, Q cfg) {
+		Node loopHeader = header.eval().nodes().one();
+		if (loopHeader != null && loopForest.isLoopHeader(loopHeader)) {
+			AtlasSet<Node> body = loopForest.getFunctionLoops(loopHeader).getLoopBody(loopHeader);
+			return Common.toQ(body).induce(cfg);
+		}
 		Q backEdges = cfg.edges("DLI.LoopBackEdge");
 		// Q nestedHeaders = Common.empty();
 		Q nestedLoopHeaders = getNestedLoopHeaders(header);
@@ -34,15 +84,14 @@ public class LoopBody {
 	}
 
 	public Q getNestedLoopHeaders(Q header) {
-		Q childLoops = header;
-		Q nestedHeaders = header;
-		while (!CommonQueries.isEmpty(childLoops)) {
-			Q nestedLoopHeaders = loopChildEdges.successors(childLoops).nodes("DLI.Loop");
-			// DisplayUtil.displayGraph(nestedLoopHeaders.eval());
-			nestedHeaders = nestedHeaders.union(nestedLoopHeaders);
-			childLoops = nestedLoopHeaders;
+		AtlasSet<Node> nestedHeaders = new AtlasHashSet<Node>();
+		for (Node loopHeader : header.eval().nodes()) {
+			nestedHeaders.add(loopHeader);
+			if (loopForest.isLoopHeader(loopHeader)) {
+				nestedHeaders.addAll(loopForest.getDescendants(loopHeader));
+			}
 		}
-		return nestedHeaders;
+		return Common.toQ(nestedHeaders);
 	}
 
 	private static boolean isLoopWithNormalExit(Node header) {
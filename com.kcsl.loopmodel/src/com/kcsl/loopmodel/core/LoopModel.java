@@ -1,13 +1,26 @@
 package com.kcsl.loopmodel.core;
 
-import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
 
 import com.ensoftcorp.atlas.core.db.graph.Edge;
+import com.ensoftcorp.atlas.core.db.graph.Graph;
 import com.ensoftcorp.atlas.core.db.graph.Node;
 import com.ensoftcorp.atlas.core.db.set.AtlasHashSet;
 import com.ensoftcorp.atlas.core.db.set.AtlasSet;
+import com.ensoftcorp.atlas.core.log.Log;
 import com.ensoftcorp.atlas.core.query.Q;
 import com.ensoftcorp.atlas.core.query.Query;
 import com.ensoftcorp.atlas.core.script.Common;
@@ -16,249 +29,481 @@ import com.ensoftcorp.atlas.ui.viewer.graph.DisplayUtil;
 import com.ensoftcorp.open.c.commons.analysis.CommonQueries;
 import com.ensoftcorp.open.commons.algorithms.DominanceAnalysis;
 import com.ensoftcorp.open.commons.analysis.SetDefinitions;
+import com.ensoftcorp.open.commons.utilities.NodeSourceCorrespondenceSorter;
 import com.kcsl.loopmodel.MemoryVerificationProperties;
+import com.kcsl.loopmodel.algorithms.DLI;
+import com.kcsl.loopmodel.algorithms.FunctionLoops;
+import com.kcsl.loopmodel.algorithms.LoopForest;
+import com.kcsl.loopmodel.util.GraphArtifacts;
+import com.kcsl.loopmodel.util.GraphExporter;
+import com.kcsl.loopmodel.util.PCGCache;
 import com.kcsl.loopmodel.util.Utils;
 
 public class LoopModel {
 	Q nodes = Common.empty();
-	Q kmalloc = Common.empty();
-	Q kfree = Common.empty();
-	private AtlasSet<Node> bothEventInsideLoopContainingFunctions;
-	private AtlasSet<Node> firstEventInsideLoopContainingFunctions;
-	private AtlasSet<Node> firstEventInsideLoopSecondEventInsideFunctionContainingFunctions;
-	private AtlasSet<Node> firstEventInsideLoopSecondEventNotInsideFunctionContainingFunctions;
 	private Q callEdges = Common.empty();
 	private Q cfEdges = Common.empty();
 	private Q invokedEdges = Common.empty();
 
-	private AtlasSet<Node> callSiteEvents;
-	private String event1 = "kmalloc";
-	private String event2 = "kfree";
-	private AtlasSet<Node> firstEventContainingFunctions = new AtlasHashSet<Node>();
+	/** The classified event pairs, pair <code>i</code> has the {@link EventIndex} events <code>2i</code> and <code>2i + 1</code> */
+	private List<PairClassification> pairs;
+	private EventIndex eventIndex;
+
+	/** The events of every function through its callees, null if wrappers are not classified */
+	private EventSummaries eventSummaries;
+
 	private Q dominanceEdges = Common.empty();
-	long problematicLoopNum = 0L;
-	long firstEeventInsideLoopNum = 0L;
-	long bothEventInsideLoopNum = 0L;
-	long firstEeventInsideLoopSecondInsideFunctionNum = 0L;
-	long firstEeventInsideLoopSecondNotInsideFunctionNum = 0L;
-	AtlasSet<Node> kmalloconly;
-	AtlasSet<Node> kfreeonly;
+	// the counters and function sets are updated by every verification worker
+	final LongAdder problematicLoopNum = new LongAdder();
 	LoopBody loopbody;
-	private AtlasSet<Node> funs = new AtlasHashSet<Node>();
-	private AtlasSet<Node> problematicFuns = new AtlasHashSet<Node>();
+	LoopForest loopForest;
+	private FunctionContext.Cache functionContexts;
+	private Set<Node> funs = ConcurrentHashMap.newKeySet();
+	private Set<Node> problematicFuns = ConcurrentHashMap.newKeySet();
+
+	/** The result files of every pair, written by a single writer thread */
+	private ResultSink resultSink;
+
+	/** Saves the graphs of the classified loops in the background */
+	private GraphExporter graphExporter;
+
+	/** The verdicts of unchanged functions, null if every loop is classified */
+	private VerdictCache verdictCache;
+
+	/** The hash of the classified events and the options changing the verdicts, part of every function fingerprint */
+	private long configurationFingerprint;
 	LoopModel() {
 		nodes = SetDefinitions.app().contained();
-		bothEventInsideLoopContainingFunctions = new AtlasHashSet<Node>();
-		firstEventInsideLoopContainingFunctions = new AtlasHashSet<Node>();
-		firstEventInsideLoopSecondEventInsideFunctionContainingFunctions = new AtlasHashSet<Node>();
-		firstEventInsideLoopSecondEventNotInsideFunctionContainingFunctions = new AtlasHashSet<Node>();
 		callEdges = Query.universe().edges(XCSG.Call);
 		cfEdges = Query.universe().edges(XCSG.ControlFlow_Edge);
-		callSiteEvents = new AtlasHashSet<Node>();
 		dominanceEdges = DominanceAnalysis.getDominatorTreeEdges();
 		invokedEdges = Common.universe().edges(XCSG.InvokedFunction, XCSG.InvokedSignature);
 		loopbody = new LoopBody();
+		loopForest = loopbody.getLoopForest();
+		pairs = new ArrayList<PairClassification>();
+		List<List<String>> events = new ArrayList<List<String>>();
+		for (EventPair pair : EventPair.getConfiguredPairs()) {
+			pairs.add(new PairClassification(pair, events.size()));
+			events.add(pair.getFirstEventFunctions());
+			events.add(pair.getSecondEventFunctions());
+		}
+		if (MemoryVerificationProperties.isEventWrapperSummaries()) {
+			eventSummaries = EventSummaries.get(callEdges, events, getVerificationParallelism());
+			int[] wrapperCounts = eventSummaries.getWrapperCounts();
+			for (PairClassification pair : pairs) {
+				Log.info(pair.pair + " wrappers: " + wrapperCounts[pair.firstEvent] + " of the first event, " + wrapperCounts[pair.secondEvent] + " of the second event");
+			}
+		}
+		eventIndex = new EventIndex(invokedEdges, events, eventSummaries);
+		configurationFingerprint = getConfigurationFingerprint(events);
+		functionContexts = new FunctionContext.Cache(MemoryVerificationProperties.getFunctionContextCacheSize(), eventIndex, loopForest);
 		preprocess();
 	}
 
 	public static void verify() {
 		LoopModel model = new LoopModel();
 		MemoryVerificationProperties.checkOrCreatedirectory();
-		MemoryVerificationProperties.resetCOutputResultFile();
-		MemoryVerificationProperties.resetC1OutputResultFile();
-		MemoryVerificationProperties.resetC2OutputResultFile();
-		MemoryVerificationProperties.resetC3OutputResultFile();
-		MemoryVerificationProperties.resetOutputProblematicLoopResultFile();
-		AtlasSet<Node> loops = model.nodes.nodes(XCSG.Loop).eval().nodes();
-		for (Node loopHeader : loops) {
-			model.verifyLoop(loopHeader);
+		model.resultSink = new ResultSink(MemoryVerificationProperties.getResultFlushInterval());
+		Path artifactsDirectory = MemoryVerificationProperties.getGraphArtifactsDirectory();
+		GraphArtifacts artifacts = artifactsDirectory == null ? null : new GraphArtifacts(artifactsDirectory, artifactsDirectory.resolve(GRAPH_ARTIFACTS_INDEX_FILE_NAME));
+		// PCG cache keys use graph addresses, so every run starts with its own cache
+		PCGCache pcgCache = MemoryVerificationProperties.getPCGCacheSize() > 0 ? new PCGCache(MemoryVerificationProperties.getPCGCacheSize()) : null;
+		model.graphExporter = new GraphExporter(MemoryVerificationProperties.getGraphExportParallelism(), MemoryVerificationProperties.getGraphExportQueueCapacity(), artifacts, pcgCache);
+		try {
+			for (PairClassification pair : model.pairs) {
+				pair.openResultFiles(model.resultSink);
+			}
+			model.verifyLoops();
+		} finally {
+			// wait for the graphs of the last loops before the run ends
+			model.graphExporter.close();
+			model.resultSink.close();
+		}
+	}
+
+	/**
+	 * Classifies every loop of the application, writes the rows to the open
+	 * result files and prints the summary of the run.
+	 */
+	private void verifyLoops() {
+		AtlasSet<Node> loops = nodes.nodes(XCSG.Loop).eval().nodes();
+		// verdicts are cached per function, per loop classification neither reads nor rewrites the cache file
+		Path verificationCacheFile = MemoryVerificationProperties.getVerificationCacheFile();
+		if (verificationCacheFile != null && MemoryVerificationProperties.isFunctionGroupedClassification()) {
+			try {
+				verdictCache = VerdictCache.load(verificationCacheFile, pairs.size(), CATEGORIES);
+			} catch (IOException e) {
+				Log.warning("Unable to load verification cache " + verificationCacheFile, e);
+			}
+		}
+		// parallel verification works function by function, an explicit per loop classification stays sequential
+		int parallelism = getVerificationParallelism();
+		if (!MemoryVerificationProperties.isFunctionGroupedClassification()) {
+			for (Node loopHeader : loops) {
+				VerificationResults results = new VerificationResults(pairs.size());
+				Node function = verifyLoop(loopHeader, results);
+				record(function, results);
+				results.write(resultSink, pairs);
+			}
+		} else if (parallelism > 1) {
+			verifyFunctions(groupByFunction(loops), parallelism);
+		} else {
+			for (Map.Entry<Node, List<Node>> functionLoops : groupByFunction(loops).entrySet()) {
+				Node function = functionLoops.getKey();
+				verifyFunction(function, functionContexts.get(function), functionLoops.getValue()).write(resultSink, pairs);
+			}
 		}
 		
-		System.out.println("#Functions: "+ model.nodes.nodes(XCSG.Function).eval().nodes().size());
-		System.out.println("#Functions have loops: "+ model.funs.size());
-		System.out.println("#Functions have problematic loops: "+ model.problematicFuns.size());
-		System.out.println("#Total Loops: "+loops.size());
-		System.out.println("#Total Problemtaic Loops: "+model.problematicLoopNum);
-		System.out.println("#Total Loops having first event inside loop: "+model.firstEeventInsideLoopNum);
-		System.out.println("#Total Loops having both events inside loop: "+ model.bothEventInsideLoopNum);
-		System.out.println("#Total Loops having first event inside loop and second event inside function: "+model.firstEeventInsideLoopSecondInsideFunctionNum);
-		System.out.println("#Total Loops having first event inside loop and second event not inside the function: "+model.firstEeventInsideLoopSecondNotInsideFunctionNum);
+		// the cache only keeps the verdicts of this run, an interrupted run would lose those of the functions it did not reach
+		if (verdictCache != null && Thread.currentThread().isInterrupted()) {
+			Log.warning("Verification interrupted, keeping the previous verification cache " + verificationCacheFile);
+		} else if (verdictCache != null) {
+			Log.info("Verification cache: " + verdictCache.getHits() + " unchanged functions, " + verdictCache.getMisses() + " functions classified");
+			try {
+				verdictCache.write(verificationCacheFile);
+			} catch (IOException e) {
+				Log.warning("Unable to save verification cache " + verificationCacheFile, e);
+			}
+		}
 		
-		System.out.println("#Functions Containing first events: "
-				+ model.firstEventContainingFunctions.size());
-		System.out.println("#Functions Containing first events inside loops: "
-				+ model.firstEventInsideLoopContainingFunctions.size());
-		System.out.println("#Functions Containing both events inside loops: "
-				+ model.bothEventInsideLoopContainingFunctions.size());
-		System.out.println("#Functions Containing first event inside Loop Second Event Inside Function: "
-				+ model.firstEventInsideLoopSecondEventInsideFunctionContainingFunctions.size());
-		System.out.println("#Functions Containing first Event Inside Loop Second Event Not Inside Function: "
-				+ model.firstEventInsideLoopSecondEventNotInsideFunctionContainingFunctions.size());
+		System.out.println("#Functions: "+ nodes.nodes(XCSG.Function).eval().nodes().size());
+		System.out.println("#Functions have loops: "+ funs.size());
+		System.out.println("#Functions have problematic loops: "+ problematicFuns.size());
+		System.out.println("#Total Loops: "+loops.size());
+		System.out.println("#Total Problemtaic Loops: "+problematicLoopNum.sum());
+		for (PairClassification pair : pairs) {
+			pair.printSummary();
+		}
+	}
+
+	/**
+	 * Returns the configured number of verification workers, one per available
+	 * processor if not configured
+	 */
+	private static int getVerificationParallelism() {
+		int parallelism = MemoryVerificationProperties.getVerificationParallelism();
+		return parallelism <= 0 ? Runtime.getRuntime().availableProcessors() : parallelism;
+	}
+
+	/**
+	 * Returns the hash of the given events, of the pairs classifying them and
+	 * of the options changing the verdict of a loop.
+	 * 
+	 * @param events
+	 * @return
+	 */
+	private long getConfigurationFingerprint(List<List<String>> events) {
+		StringBuilder configuration = new StringBuilder();
+		for (PairClassification pair : pairs) {
+			configuration.append(pair.pair.getName()).append(';');
+		}
+		for (List<String> event : events) {
+			for (String name : event) {
+				configuration.append(name.trim()).append(',');
+			}
+			configuration.append(';');
+		}
+		configuration.append(eventSummaries != null).append(';');
+		// loops of the last category are only reported when graphs are saved
+		configuration.append(MemoryVerificationProperties.isSaveVerificationGraphs());
+		return DLI.hash(configuration.toString());
+	}
+
+	/**
+	 * Groups the given loop headers by their containing function, keeping the
+	 * order in which the functions are first seen.
+	 * 
+	 * @param loops
+	 * @return
+	 */
+	private static Map<Node, List<Node>> groupByFunction(AtlasSet<Node> loops) {
+		Map<Node, List<Node>> functionLoops = new LinkedHashMap<Node, List<Node>>();
+		for (Node loopHeader : loops) {
+			Node function = CommonQueries.getContainingFunction(loopHeader);
+			List<Node> headers = functionLoops.get(function);
+			if (headers == null) {
+				headers = new ArrayList<Node>();
+				functionLoops.put(function, headers);
+			}
+			headers.add(loopHeader);
+		}
+		return functionLoops;
+	}
+
+	/**
+	 * Classifies the loops of each function on a pool of <code>parallelism</code>
+	 * workers, one task per function. Each task has its own function context and
+	 * buffers its result rows, the buffers are written in the order of the
+	 * functions, so the result files are the same as for a sequential run.
+	 * Problematic loops are displayed by the calling thread while writing the
+	 * rows, and a failing function fails the run as it would sequentially.
+	 * 
+	 * @param functionLoops
+	 * @param parallelism
+	 */
+	private void verifyFunctions(Map<Node, List<Node>> functionLoops, int parallelism) {
+		int workers = Math.max(1, Math.min(parallelism, functionLoops.size()));
+		ForkJoinPool pool = new ForkJoinPool(workers);
 		try {
-			MemoryVerificationProperties.getOutputProblematicLoopResultFileWriter().close();
-			MemoryVerificationProperties.getOutputCFileWriter().close();
-			MemoryVerificationProperties.getOutputC1FileWriter().close();
-			MemoryVerificationProperties.getOutputC2FileWriter().close();
-			MemoryVerificationProperties.getOutputC3FileWriter().close();
-		} catch (Exception e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			List<Future<VerificationResults>> tasks = new ArrayList<Future<VerificationResults>>(functionLoops.size());
+			for (final Map.Entry<Node, List<Node>> entry : functionLoops.entrySet()) {
+				tasks.add(pool.submit(new Callable<VerificationResults>() {
+					@Override
+					public VerificationResults call() {
+						Node function = entry.getKey();
+						return verifyFunction(function, new FunctionContext(function, eventIndex, loopForest), entry.getValue());
+					}
+				}));
+			}
+			
+			// write each function's results as soon as all the functions before it are written
+			for (Future<VerificationResults> task : tasks) {
+				try {
+					task.get().write(resultSink, pairs);
+				} catch (InterruptedException e) {
+					Log.warning("Caught thread interruption exception", e);
+					Thread.currentThread().interrupt();
+					cancel(tasks);
+					return;
+				} catch (ExecutionException e) {
+					// fail as the sequential run does, instead of leaving the function out of the results
+					cancel(tasks);
+					Throwable cause = e.getCause();
+					if (cause instanceof RuntimeException) {
+						throw (RuntimeException) cause;
+					}
+					if (cause instanceof Error) {
+						throw (Error) cause;
+					}
+					throw new RuntimeException("Problem in loop verification worker", cause);
+				}
+			}
+		} finally {
+			pool.shutdownNow();
 		}
+	}
 
+	private static void cancel(List<Future<VerificationResults>> tasks) {
+		for (Future<VerificationResults> task : tasks) {
+			task.cancel(true);
+		}
 	}
 
-	private Node isLoopProblematic(Q loopBody, Node header) {
-		Node problematicNode = null;
+	/**
+	 * Classifies all the loops of a function from the same function context,
+	 * so the function wide event facts are computed once for all of them.
+	 * <p>
+	 * With a verification cache, the verdict of a function whose fingerprint
+	 * did not change is reused instead, without saving its graphs again.
+	 * Functions with problematic loops are always classified again, their
+	 * rows report the addresses of the side entries.
+	 * 
+	 * @param function
+	 * @param context
+	 * @param loopHeaders
+	 * @return The rows and counts of the function's loops
+	 */
+	private VerificationResults verifyFunction(Node function, FunctionContext context, List<Node> loopHeaders) {
+		long fingerprint = 0;
+		if (verdictCache != null) {
+			fingerprint = context.getFingerprint(configurationFingerprint);
+			VerdictCache.Verdict verdict = verdictCache.get(fingerprint);
+			if (verdict != null && verdict.rows.length == pairs.size()) {
+				VerificationResults results = new VerificationResults(verdict);
+				record(function, results);
+				return results;
+			}
+		}
+		VerificationResults results = new VerificationResults(pairs.size());
+		for (Node loopHeader : loopHeaders) {
+			verifyLoop(loopHeader, function, context, results);
+		}
+		record(function, results);
+		if (verdictCache != null && results.problematicLoops == 0) {
+			verdictCache.put(fingerprint, results.toVerdict());
+		}
+		return results;
+	}
+
+	/**
+	 * Adds the counts of the given results to the summary counters, and the
+	 * function to the function sets of every category it has loops in.
+	 * 
+	 * @param function
+	 * @param results
+	 */
+	private void record(Node function, VerificationResults results) {
+		funs.add(function);
+		if (results.problematicLoops > 0) {
+			problematicLoopNum.add(results.problematicLoops);
+			problematicFuns.add(function);
+		}
+		for (int pair = 0; pair < pairs.size(); pair++) {
+			pairs.get(pair).record(function, results.counts[pair]);
+		}
+	}
+
+	/**
+	 * Returns the side entries of the given loop, the members other than the
+	 * header that have a control flow predecessor outside of the loop, sorted
+	 * by source correspondence. The incoming edges of the whole body are found
+	 * with a single query.
+	 * 
+	 * @param loopBody
+	 * @param header
+	 * @return
+	 */
+	private List<Node> getLoopSideEntries(Q loopBody, Node header) {
 		AtlasSet<Node> loopMembers = loopBody.eval().nodes();
+		FunctionLoops functionLoops = loopForest.isLoopHeader(header) ? loopForest.getFunctionLoops(header) : null;
 		
-		for (Node loopMember : loopMembers) {
-			if(loopMember.equals(header))
+		AtlasSet<Node> sideEntries = new AtlasHashSet<Node>();
+		Graph incoming = cfEdges.reverseStepOn(Common.toQ(loopMembers)).eval();
+		for (Edge edge : incoming.edges()) {
+			Node loopMember = edge.to();
+			if (loopMember.equals(header) || sideEntries.contains(loopMember)) {
 				continue;
-			AtlasSet<Node> preds = cfEdges.predecessors(Common.toQ(loopMember)).eval().nodes();
-			
-			for (Node pred : preds) {
-				if (!loopMembers.contains(pred)) {
-					problematicNode = loopMember;
-					DisplayUtil.displayGraph(Common.toQ(loopMembers).eval());
-				}
+			}
+			Node pred = edge.from();
+			boolean inLoop = functionLoops != null ? functionLoops.isInLoopBody(header, pred) : loopMembers.contains(pred);
+			if (!inLoop) {
+				sideEntries.add(loopMember);
 			}
 		}
-		return problematicNode;
+		if (sideEntries.isEmpty()) {
+			return Collections.<Node>emptyList();
+		}
+		List<Node> sortedSideEntries = new ArrayList<Node>();
+		for (Node sideEntry : sideEntries) {
+			sortedSideEntries.add(sideEntry);
+		}
+		Collections.sort(sortedSideEntries, new NodeSourceCorrespondenceSorter());
+		return sortedSideEntries;
 	}
 
-	private void verifyLoop(Node loopHeader) {
+	private Node verifyLoop(Node loopHeader, VerificationResults results) {
 		Node function = CommonQueries.getContainingFunction(loopHeader);
-		Q loopBody = loopbody.getLoopBody(Common.toQ(loopHeader), CommonQueries.cfg(function));
-		funs.add(function);
+		verifyLoop(loopHeader, function, functionContexts.get(function), results);
+		return function;
+	}
+
+	private void verifyLoop(Node loopHeader, Node function, FunctionContext context, VerificationResults results) {
+		Q loopBody = loopbody.getLoopBody(Common.toQ(loopHeader), context.getCFG());
 		String fName = function.getAttr(XCSG.name).toString();
 		String sourceFilePath = Utils.getCSourceFilePath(loopHeader);
-		String loopID = loopHeader.address().toAddressString();
+		String loopID = getLoopID(loopHeader);
 		Long loopLineNumber = Utils.getLineNumber(loopHeader);
-		Node problematicNode = isLoopProblematic(loopBody, loopHeader);
-		if (problematicNode != null) {
-			problematicLoopNum++;
-			problematicFuns.add(function);
-			String nodeID = problematicNode.address().toAddressString();
-			Long nodeLineNumber = Utils.getLineNumber(problematicNode);
-			FileWriter fw = MemoryVerificationProperties.getOutputProblematicLoopResultFileWriter();
-			this.save2ProblematicLoopFile(fw, fName, loopID, loopLineNumber, nodeID, nodeLineNumber, sourceFilePath);
+		List<Node> sideEntries = getLoopSideEntries(loopBody, loopHeader);
+		if (!sideEntries.isEmpty()) {
+			results.problematicLoops++;
+			results.problematicLoopBodies.add(loopBody);
+			// one row per side entry, in the problematic loop file of every pair
+			for (int pair = 0; pair < pairs.size(); pair++) {
+				for (Node sideEntry : sideEntries) {
+					String nodeID = sideEntry.address().toAddressString();
+					Long nodeLineNumber = Utils.getLineNumber(sideEntry);
+					this.save2ProblematicLoopFile(results.rows[pair][PROBLEMATIC], fName, loopID, loopLineNumber, nodeID, nodeLineNumber, sourceFilePath);
+				}
+			}
 			if(MemoryVerificationProperties.isSaveVerificationGraphs()) {
 			Path path = MemoryVerificationProperties.getProblematicLoopOutputDirectory();
-			Utils.saveGraph(loopHeader, function, Common.empty(), Common.empty(), Common.empty(), path, "P",  "Crazy");
+			graphExporter.saveGraph(loopHeader, function, getGraphCFG(context, loopBody.eval().nodes(), Common.empty()), Common.empty(), Common.empty(), Common.empty(), path, "P",  "Crazy");
 			}
 		} else {
-			verifyLoop(loopHeader, function, loopBody, fName, loopID, loopLineNumber, sourceFilePath);
+			verifyLoop(loopHeader, context, loopBody, fName, loopID, loopLineNumber, sourceFilePath, results);
 		}		
 	}
 
-	private void verifyLoop(Node loopHeader, Node function, Q loopBody, String fName, String loopID, Long loopLineNumber,
-			String sourceFilePath) {
+	/**
+	 * Classifies a loop without side entries for every event pair. The
+	 * callsites of the loop are walked once, collecting the control flow nodes
+	 * of every event, then each pair is classified from its two events.
+	 */
+	private void verifyLoop(Node loopHeader, FunctionContext context, Q loopBody, String fName, String loopID, Long loopLineNumber,
+			String sourceFilePath, VerificationResults results) {
 		
-		AtlasSet<Node> callsites = loopBody.children().nodes(XCSG.CallSite).eval().nodes();
+		AtlasSet<Node> loopMembers = loopBody.eval().nodes();
 		//AtlasSet<Node> targets = new AtlasHashSet<Node>();
-		int mallocFlag = 0;
-		int freeFlag = 0;
-		AtlasSet<Node> mallocEvents = new AtlasHashSet<Node>();
-		AtlasSet<Node> kfreeEvents = new AtlasHashSet<Node>();
-		String signature="";
-		for (Node callsite : callsites) {
-			Node cfNode = Common.toQ(callsite).parent().eval().nodes().one();
-			AtlasSet<Node> tg = invokedEdges.successors(Common.toQ(callsite)).eval().nodes();
-//			targets.addAll(tg);
-			for (Node target : tg) {
-				
-				if (target.getAttr(XCSG.name).toString().equals(event1)) {
-					signature = event1;
-					mallocEvents.add(cfNode);
-					mallocFlag = 1;
-				} else if (target.getAttr(XCSG.name).toString().equals(event2)) {
-					kfreeEvents.add(cfNode);
-					freeFlag = 1;
-				} 
-//				else if(kmalloconly.contains(target)) {
-//				    signature = target.getAttr(XCSG.name).toString();
-//					callSiteEvents.add(cfNode);
-//					mallocFlag = 1;
-//				} else if(kfreeonly.contains(target)) {
-//					callSiteEvents.add(cfNode);
-//					freeFlag = 1;
-//				} 
-				
+		List<AtlasSet<Node>> eventNodes = new ArrayList<AtlasSet<Node>>(pairs.size() * 2);
+		for (int event = 0; event < pairs.size() * 2; event++) {
+			eventNodes.add(new AtlasHashSet<Node>());
+		}
+		String[] signatures = new String[pairs.size()];
+		// the control flow nodes calling a wrapper of each pair's events, highlighted as callsite events
+		List<AtlasSet<Node>> callSiteEvents = new ArrayList<AtlasSet<Node>>(pairs.size());
+		for (int pair = 0; pair < pairs.size(); pair++) {
+			callSiteEvents.add(new AtlasHashSet<Node>());
+		}
+		for (Node callsite : context.getCallsitesInLoop(loopHeader, loopMembers)) {
+			long events = eventIndex.getEvents(callsite);
+			if (events == 0) {
+				continue;
 			}
+			Node cfNode = context.getCallsiteControlFlowNodes().get(callsite);
+			for (long bits = events; bits != 0; bits &= bits - 1) {
+				int event = Long.numberOfTrailingZeros(bits);
+				eventNodes.get(event).add(cfNode);
+				if (event % 2 == 0) {
+					signatures[event / 2] = eventIndex.getTargetName(callsite, event);
+				}
+			}
+			for (long bits = eventIndex.getWrapperEvents(callsite); bits != 0; bits &= bits - 1) {
+				callSiteEvents.get(Long.numberOfTrailingZeros(bits) / 2).add(cfNode);
+			}
+		}
+		for (int pair = 0; pair < pairs.size(); pair++) {
+			PairClassification classification = pairs.get(pair);
+			classifyLoop(classification, loopHeader, context, loopMembers, eventNodes.get(classification.firstEvent), eventNodes.get(classification.secondEvent),
+					callSiteEvents.get(pair), signatures[pair] == null ? "" : signatures[pair], fName, loopID, loopLineNumber, sourceFilePath, results.rows[pair], results.counts[pair]);
 		}
+	}
+
+	private void classifyLoop(PairClassification pair, Node loopHeader, FunctionContext context, AtlasSet<Node> loopMembers, AtlasSet<Node> mallocEvents, AtlasSet<Node> kfreeEvents,
+			AtlasSet<Node> callSiteEvents, String signature, String fName, String loopID, Long loopLineNumber, String sourceFilePath, StringBuilder[] rows, int[] counts) {
+		Node function = context.getFunction();
+		int mallocFlag = mallocEvents.isEmpty() ? 0 : 1;
+		int freeFlag = kfreeEvents.isEmpty() ? 0 : 1;
 		if(mallocFlag == 1) {
-			firstEeventInsideLoopNum++;
-			FileWriter fw = MemoryVerificationProperties.getOutputCFileWriter();
-			this.save2LoopFile(fw, fName, loopID, loopLineNumber, sourceFilePath);
-			firstEventInsideLoopContainingFunctions.add(function);
+			counts[C]++;
+			this.save2LoopFile(rows[C], fName, loopID, loopLineNumber, sourceFilePath);
 			if(MemoryVerificationProperties.isSaveVerificationGraphs()) {
-			Path path = MemoryVerificationProperties.getCOutputDirectory();
-			Utils.saveGraph(loopHeader, function, Common.toQ(mallocEvents), Common.toQ(kfreeEvents), Common.empty(), path, "C",  signature);
+			Path path = pair.graphsDirectories[C];
+			graphExporter.saveGraph(loopHeader, function, getGraphCFG(context, loopMembers, eventsQ(mallocEvents, kfreeEvents, callSiteEvents)), Common.toQ(mallocEvents), Common.toQ(kfreeEvents), Common.toQ(callSiteEvents), path, "C",  signature);
 			}
 			
 		}
 		
 		if (mallocFlag == 1 && freeFlag == 1) {
-			bothEventInsideLoopNum++;
-			FileWriter fw = MemoryVerificationProperties.getOutputC1FileWriter();
-			this.save2LoopFile(fw, fName, loopID, loopLineNumber, sourceFilePath);
-			bothEventInsideLoopContainingFunctions.add(function);
-				Q cfgTargets = CommonQueries.cfg(function).children().nodes(XCSG.CallSite);
-				for (Node callsite : cfgTargets.eval().nodes()) {
-					Node cfNode = Common.toQ(callsite).parent().eval().nodes().one();
-					if(!cfNode.hasAttr("Toolbox.loopDepth")) {
-						AtlasSet<Node> tg = invokedEdges.successors(Common.toQ(callsite)).eval().nodes();
-					for(Node n: tg) {
-						if (n.getAttr(XCSG.name).toString().equals("kfree")) {
-							kfreeEvents.add(cfNode);
-							freeFlag = 1;
-						} 
-//						else if(kfreeonly.contains(n)) {
-//							callSiteEvents.add(cfNode);
-//							freeFlag = 1;
-//						}
-					}
-				  }
+			counts[C1]++;
+			this.save2LoopFile(rows[C1], fName, loopID, loopLineNumber, sourceFilePath);
+				AtlasSet<Node> kfreeNodes = context.getEventNodesOutsideLoops(pair.secondEvent);
+				if (!kfreeNodes.isEmpty()) {
+					kfreeEvents.addAll(kfreeNodes);
+					freeFlag = 1;
 				}
 				if(MemoryVerificationProperties.isSaveVerificationGraphs()) {
-				Path path = MemoryVerificationProperties.getC1OutputDirectory();
-				Utils.saveGraph(loopHeader, function, Common.toQ(mallocEvents), Common.toQ(kfreeEvents), Common.empty(), path, "C1",  signature);
+				Path path = pair.graphsDirectories[C1];
+				graphExporter.saveGraph(loopHeader, function, getGraphCFG(context, loopMembers, eventsQ(mallocEvents, kfreeEvents, callSiteEvents)), Common.toQ(mallocEvents), Common.toQ(kfreeEvents), Common.toQ(callSiteEvents), path, "C1",  signature);
 				}
 		} else if(mallocFlag == 1 && freeFlag == 0) {
-			Q cfgTargets = CommonQueries.cfg(function).children().nodes(XCSG.CallSite);
-			for (Node callsite : cfgTargets.eval().nodes()) {
-				Node cfNode = Common.toQ(callsite).parent().eval().nodes().one();
-				if(!cfNode.hasAttr("Toolbox.loopDepth")) {
-					AtlasSet<Node> tg = invokedEdges.successors(Common.toQ(callsite)).eval().nodes();
-				for(Node n: tg) {
-					if (n.getAttr(XCSG.name).toString().equals(event2)) {
-						kfreeEvents.add(cfNode);
-						freeFlag = 1;
-					} 
-//					else if(kfreeonly.contains(n)) {	
-//						callSiteEvents.add(cfNode);
-//						freeFlag = 1;
-//					}
-				}
-			  }
+			AtlasSet<Node> event2Nodes = context.getEventNodesOutsideLoops(pair.secondEvent);
+			if (!event2Nodes.isEmpty()) {
+				kfreeEvents.addAll(event2Nodes);
+				freeFlag = 1;
 			}
 			if(freeFlag == 1) {
-				firstEeventInsideLoopSecondInsideFunctionNum++;
-				firstEventInsideLoopSecondEventInsideFunctionContainingFunctions.add(function);
-				FileWriter fw = MemoryVerificationProperties.getOutputC2FileWriter();
-				this.save2LoopFile(fw, fName, loopID, loopLineNumber, sourceFilePath);
+				counts[C2]++;
+				this.save2LoopFile(rows[C2], fName, loopID, loopLineNumber, sourceFilePath);
 				if(MemoryVerificationProperties.isSaveVerificationGraphs()) {
-				Path path = MemoryVerificationProperties.getC2OutputDirectory();
-				Utils.saveGraph(loopHeader, function, Common.toQ(mallocEvents), Common.toQ(kfreeEvents), Common.empty(), path, "C2",  signature);
+				Path path = pair.graphsDirectories[C2];
+				graphExporter.saveGraph(loopHeader, function, getGraphCFG(context, loopMembers, eventsQ(mallocEvents, kfreeEvents, callSiteEvents)), Common.toQ(mallocEvents), Common.toQ(kfreeEvents), Common.toQ(callSiteEvents), path, "C2",  signature);
 				}
 			} else {
 				if(MemoryVerificationProperties.isSaveVerificationGraphs()) {
-				firstEeventInsideLoopSecondNotInsideFunctionNum++;
-				firstEventInsideLoopSecondEventNotInsideFunctionContainingFunctions.add(function);
-				FileWriter fw = MemoryVerificationProperties.getOutputC3FileWriter();
-				this.save2LoopFile(fw, fName, loopID, loopLineNumber, sourceFilePath);
-				Path path = MemoryVerificationProperties.getC3OutputDirectory();
-				Utils.saveGraph(loopHeader, function, Common.toQ(mallocEvents), Common.toQ(kfreeEvents), Common.empty(), path, "C3",  signature);
+				counts[C3]++;
+				this.save2LoopFile(rows[C3], fName, loopID, loopLineNumber, sourceFilePath);
+				Path path = pair.graphsDirectories[C3];
+				graphExporter.saveGraph(loopHeader, function, getGraphCFG(context, loopMembers, eventsQ(mallocEvents, kfreeEvents, callSiteEvents)), Common.toQ(mallocEvents), Common.toQ(kfreeEvents), Common.toQ(callSiteEvents), path, "C3",  signature);
 				}
 			}
 		}
@@ -266,50 +511,223 @@ public class LoopModel {
 
 	}
 
-	private void save2LoopFile(FileWriter fw, String fName, String loopID, Long loopLineNumber, String sourceFilePath) {
-		try {
-			fw.write(fName + " , " + loopID + " , " + loopLineNumber + " , " + sourceFilePath + "\n");
-			fw.flush();
-		} catch (IOException e) {
-			System.err.println("Cannot write to log file.");
+	/**
+	 * Returns the graph saved for a loop, the CFG of its function or, with
+	 * loop scoped graphs, the loop body with its entry and exit edges and the
+	 * given event nodes, each with one step of control flow around them.
+	 * 
+	 * @param context
+	 * @param loopMembers
+	 * @param events The highlighted event nodes, inside or outside of the loop
+	 * @return
+	 */
+	private static Q getGraphCFG(FunctionContext context, AtlasSet<Node> loopMembers, Q events) {
+		if (!MemoryVerificationProperties.isLoopScopedGraphs()) {
+			return context.getCFG();
 		}
+		Q scope = Common.toQ(loopMembers).union(events);
+		Q cfg = context.getCFG();
+		// evaluated once, the graph is queried again for the PCG and for every saved file
+		return Common.toQ(cfg.forwardStepOn(scope).union(cfg.reverseStepOn(scope)).eval());
+	}
 
+	private static Q eventsQ(AtlasSet<Node> mallocEvents, AtlasSet<Node> kfreeEvents, AtlasSet<Node> callSiteEvents) {
+		return Common.toQ(mallocEvents).union(Common.toQ(kfreeEvents), Common.toQ(callSiteEvents));
 	}
 
-	private void save2ProblematicLoopFile(FileWriter fw, String fName, String loopID, Long loopLineNumber,
+	/**
+	 * Returns the {@link DLI.CFGNode#LOOP_HEADER_ID} of the given loop header, which is stable across runs,
+	 * or its address if the loop was not recovered by {@link DLI}.
+	 * 
+	 * @param loopHeader
+	 * @return
+	 */
+	private static String getLoopID(Node loopHeader) {
+		if (loopHeader.hasAttr(DLI.CFGNode.LOOP_HEADER_ID)) {
+			return loopHeader.getAttr(DLI.CFGNode.LOOP_HEADER_ID).toString();
+		}
+		return loopHeader.address().toAddressString();
+	}
+
+	private void save2LoopFile(StringBuilder rows, String fName, String loopID, Long loopLineNumber, String sourceFilePath) {
+		rows.append(fName).append(" , ").append(loopID).append(" , ").append(loopLineNumber).append(" , ").append(sourceFilePath).append('\n');
+	}
+
+	private void save2ProblematicLoopFile(StringBuilder rows, String fName, String loopID, Long loopLineNumber,
 			String nodeID, Long nodeLineNumber, String sourceFilePath) {
-		try {
-			fw.write(fName + " , " + loopID + " , " + loopLineNumber + " , " + nodeID + ", " + nodeLineNumber + " , "
-					+ sourceFilePath + "\n");
-			fw.flush();
-		} catch (IOException e) {
-			System.err.println("Cannot write to log file.");
+		rows.append(fName).append(" , ").append(loopID).append(" , ").append(loopLineNumber).append(" , ").append(nodeID).append(", ")
+				.append(nodeLineNumber).append(" , ").append(sourceFilePath).append('\n');
+	}
+
+	/** The file inside the graph artifacts directory listing the graphs that could not be linked to their artifact */
+	private static final String GRAPH_ARTIFACTS_INDEX_FILE_NAME = "index.csv";
+
+	/** The result file categories, the index of each category's rows, writer and graph directory */
+	private static final int PROBLEMATIC = 0;
+	private static final int C = 1;
+	private static final int C1 = 2;
+	private static final int C2 = 3;
+	private static final int C3 = 4;
+	private static final int CATEGORIES = 5;
+
+	/**
+	 * The classification of the loops for one {@link EventPair}: its events,
+	 * result files and graph directories, and the counters and function sets
+	 * updated by every verification worker.
+	 */
+	private static class PairClassification {
+		final EventPair pair;
+		final int firstEvent;
+		final int secondEvent;
+		final int[] resultFiles = new int[CATEGORIES];
+		final Path[] graphsDirectories = new Path[CATEGORIES];
+		AtlasSet<Node> firstEventContainingFunctions = new AtlasHashSet<Node>();
+		final LongAdder firstEeventInsideLoopNum = new LongAdder();
+		final LongAdder bothEventInsideLoopNum = new LongAdder();
+		final LongAdder firstEeventInsideLoopSecondInsideFunctionNum = new LongAdder();
+		final LongAdder firstEeventInsideLoopSecondNotInsideFunctionNum = new LongAdder();
+		final Set<Node> firstEventInsideLoopContainingFunctions = ConcurrentHashMap.newKeySet();
+		final Set<Node> bothEventInsideLoopContainingFunctions = ConcurrentHashMap.newKeySet();
+		final Set<Node> firstEventInsideLoopSecondEventInsideFunctionContainingFunctions = ConcurrentHashMap.newKeySet();
+		final Set<Node> firstEventInsideLoopSecondEventNotInsideFunctionContainingFunctions = ConcurrentHashMap.newKeySet();
+
+		PairClassification(EventPair pair, int firstEvent) {
+			this.pair = pair;
+			this.firstEvent = firstEvent;
+			this.secondEvent = firstEvent + 1;
+			graphsDirectories[PROBLEMATIC] = MemoryVerificationProperties.getProblematicLoopOutputDirectory();
+			graphsDirectories[C] = pair.getGraphsDirectory(MemoryVerificationProperties.getCOutputDirectory());
+			graphsDirectories[C1] = pair.getGraphsDirectory(MemoryVerificationProperties.getC1OutputDirectory());
+			graphsDirectories[C2] = pair.getGraphsDirectory(MemoryVerificationProperties.getC2OutputDirectory());
+			graphsDirectories[C3] = pair.getGraphsDirectory(MemoryVerificationProperties.getC3OutputDirectory());
 		}
 
+		void openResultFiles(ResultSink sink) {
+			String header = MemoryVerificationProperties.getResultCSVHeader();
+			resultFiles[PROBLEMATIC] = sink.open(pair.getResultFile(MemoryVerificationProperties.getProblematicLoopResultFile()), MemoryVerificationProperties.getProblematicLoopCSVHeader());
+			resultFiles[C] = sink.open(pair.getResultFile(MemoryVerificationProperties.getCResultFile()), header);
+			resultFiles[C1] = sink.open(pair.getResultFile(MemoryVerificationProperties.getC1ResultFile()), header);
+			resultFiles[C2] = sink.open(pair.getResultFile(MemoryVerificationProperties.getC2ResultFile()), header);
+			resultFiles[C3] = sink.open(pair.getResultFile(MemoryVerificationProperties.getC3ResultFile()), header);
+		}
+
+		/**
+		 * Adds the category counts of the loops of the given function
+		 * 
+		 * @param function
+		 * @param counts
+		 */
+		void record(Node function, int[] counts) {
+			if (counts[C] > 0) {
+				firstEeventInsideLoopNum.add(counts[C]);
+				firstEventInsideLoopContainingFunctions.add(function);
+			}
+			if (counts[C1] > 0) {
+				bothEventInsideLoopNum.add(counts[C1]);
+				bothEventInsideLoopContainingFunctions.add(function);
+			}
+			if (counts[C2] > 0) {
+				firstEeventInsideLoopSecondInsideFunctionNum.add(counts[C2]);
+				firstEventInsideLoopSecondEventInsideFunctionContainingFunctions.add(function);
+			}
+			if (counts[C3] > 0) {
+				firstEeventInsideLoopSecondNotInsideFunctionNum.add(counts[C3]);
+				firstEventInsideLoopSecondEventNotInsideFunctionContainingFunctions.add(function);
+			}
+		}
+
+		void printSummary() {
+			// the memory pair keeps the unprefixed summary lines
+			String prefix = pair.isMemory() ? "" : "[" + pair.getName() + "] ";
+			System.out.println(prefix + "#Total Loops having first event inside loop: "+firstEeventInsideLoopNum.sum());
+			System.out.println(prefix + "#Total Loops having both events inside loop: "+ bothEventInsideLoopNum.sum());
+			System.out.println(prefix + "#Total Loops having first event inside loop and second event inside function: "+firstEeventInsideLoopSecondInsideFunctionNum.sum());
+			System.out.println(prefix + "#Total Loops having first event inside loop and second event not inside the function: "+firstEeventInsideLoopSecondNotInsideFunctionNum.sum());
+			
+			System.out.println(prefix + "#Functions Containing first events: "
+					+ firstEventContainingFunctions.size());
+			System.out.println(prefix + "#Functions Containing first events inside loops: "
+					+ firstEventInsideLoopContainingFunctions.size());
+			System.out.println(prefix + "#Functions Containing both events inside loops: "
+					+ bothEventInsideLoopContainingFunctions.size());
+			System.out.println(prefix + "#Functions Containing first event inside Loop Second Event Inside Function: "
+					+ firstEventInsideLoopSecondEventInsideFunctionContainingFunctions.size());
+			System.out.println(prefix + "#Functions Containing first Event Inside Loop Second Event Not Inside Function: "
+					+ firstEventInsideLoopSecondEventNotInsideFunctionContainingFunctions.size());
+		}
+	}
+
+	/**
+	 * The result file rows and category counts of the loops of one function
+	 * for every event pair, buffered so that functions verified in parallel
+	 * are written in a fixed order.
+	 */
+	private static class VerificationResults {
+		final StringBuilder[][] rows;
+		final int[][] counts;
+		int problematicLoops;
+
+		/** The bodies of the problematic loops, displayed by the thread writing the rows */
+		final List<Q> problematicLoopBodies = new ArrayList<Q>();
+
+		VerificationResults(int pairs) {
+			rows = new StringBuilder[pairs][CATEGORIES];
+			counts = new int[pairs][CATEGORIES];
+			for (StringBuilder[] pairRows : rows) {
+				for (int category = 0; category < CATEGORIES; category++) {
+					pairRows[category] = new StringBuilder();
+				}
+			}
+		}
+
+		VerificationResults(VerdictCache.Verdict verdict) {
+			this(verdict.rows.length);
+			for (int pair = 0; pair < rows.length; pair++) {
+				for (int category = 0; category < CATEGORIES; category++) {
+					rows[pair][category].append(verdict.rows[pair][category]);
+					counts[pair][category] = verdict.counts[pair][category];
+				}
+			}
+		}
+
+		VerdictCache.Verdict toVerdict() {
+			String[][] verdictRows = new String[rows.length][CATEGORIES];
+			int[][] verdictCounts = new int[rows.length][];
+			for (int pair = 0; pair < rows.length; pair++) {
+				for (int category = 0; category < CATEGORIES; category++) {
+					verdictRows[pair][category] = rows[pair][category].toString();
+				}
+				verdictCounts[pair] = counts[pair].clone();
+			}
+			return new VerdictCache.Verdict(verdictRows, verdictCounts);
+		}
+
+		/**
+		 * Writes the rows to the result files and, unless verification is
+		 * headless, displays the problematic loops. Only called from the
+		 * thread running the verification, never from a worker.
+		 */
+		void write(ResultSink sink, List<PairClassification> pairs) {
+			for (int pair = 0; pair < rows.length; pair++) {
+				for (int category = 0; category < CATEGORIES; category++) {
+					sink.write(pairs.get(pair).resultFiles[category], rows[pair][category]);
+				}
+			}
+			if (!MemoryVerificationProperties.isHeadlessVerification()) {
+				for (Q loopBody : problematicLoopBodies) {
+					DisplayUtil.displayGraph(loopBody.eval());
+				}
+			}
+		}
 	}
 	
 	private void preprocess() {
-		kmalloc = CommonQueries.functions("kmalloc");
-		kfree = CommonQueries.functions("kfree");
-		Q kmallocCallers = callEdges.predecessors(kmalloc);
-		Q kfreeCallers = callEdges.predecessors(kfree);
-		kmalloconly = new AtlasHashSet<Node>();
-		kfreeonly = new AtlasHashSet<Node>();
-		AtlasSet<Node> mOnly = kmallocCallers.difference(kfreeCallers).eval().nodes();
-		// ---start added			
-		AtlasSet<Node> withoutWrapper = kmallocCallers.difference(Common.toQ(mOnly)).eval().nodes();
-		AtlasSet<Node> allmallocCallers = Common.toQ(withoutWrapper).union(Common.toQ(mOnly)).eval().nodes();	
-		//--end added
-		kmalloconly.addAll(mOnly);
-		kmalloconly.addAll(kmalloc.eval().nodes());
-		AtlasSet<Node> fonly = kfreeCallers.difference(kmallocCallers).eval().nodes();
-		kfreeonly.addAll(fonly);
-		kfreeonly.addAll(kfree.eval().nodes());
-		firstEventContainingFunctions.addAll(allmallocCallers);
-		firstEeventInsideLoopNum = 0L;
-		bothEventInsideLoopNum = 0L;
-		firstEeventInsideLoopSecondInsideFunctionNum = 0L;
-		firstEeventInsideLoopSecondNotInsideFunctionNum = 0L;
+		// the direct callers of the first event functions, wrappers are counted by their own callers' loops
+		for (PairClassification pair : pairs) {
+			List<String> firstEventFunctions = pair.pair.getFirstEventFunctions();
+			Q firstEvent = CommonQueries.functions(firstEventFunctions.toArray(new String[firstEventFunctions.size()]));
+			pair.firstEventContainingFunctions.addAll(callEdges.predecessors(firstEvent).eval().nodes());
+		}
 	}
 	
 	
@@ -0,0 +1,231 @@
+package com.kcsl.loopmodel.core;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The result files of a verification run, written by a single writer thread.
+ * <p>
+ * Files are opened and rows are written from any thread through a bounded
+ * queue, a thread adding to a full queue waits for the writer. The writer
+ * appends the rows to buffered files and flushes them at most once per flush
+ * interval, so many rows reach the disk in a few large writes. The rows of a
+ * file are written in the order they were added.
+ * <p>
+ * {@link #close()} writes the pending rows and closes every file, it must be
+ * called at the end of the run.
+ */
+class ResultSink implements Closeable {
+
+	private static final int QUEUE_CAPACITY = 1024;
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/** A file to open, rows to write or the end of the run */
+	private static class Request {
+		final int file;
+		final Path path;
+		final String text;
+
+		Request(int file, Path path, String text) {
+			this.file = file;
+			this.path = path;
+			this.text = text;
+		}
+	}
+
+	private static final Request CLOSE = new Request(-1, null, null);
+
+	private final BlockingQueue<Request> queue = new ArrayBlockingQueue<Request>(QUEUE_CAPACITY);
+	private final AtomicInteger nextFile = new AtomicInteger();
+	private final long flushInterval;
+	private final Thread writer;
+
+	/** The open files, indexed by file number, only accessed by the writer thread */
+	private final List<Writer> files = new ArrayList<Writer>();
+
+	private boolean closed;
+
+	/**
+	 * Starts the writer thread.
+	 *
+	 * @param flushInterval The maximum number of milliseconds rows stay buffered, 0 flushes whenever the queue is empty
+	 */
+	ResultSink(long flushInterval) {
+		this.flushInterval = TimeUnit.MILLISECONDS.toNanos(flushInterval);
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				drain();
+			}
+		}, "Verification result writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Creates the given result file, replacing any existing one, and writes
+	 * the given header to it.
+	 *
+	 * @param path
+	 * @param header
+	 * @return The number of the file, to write its rows with {@link #write(int, CharSequence)}
+	 */
+	int open(Path path, String header) {
+		int file = nextFile.getAndIncrement();
+		put(new Request(file, path, header));
+		return file;
+	}
+
+	/**
+	 * Adds the given rows to the given file, waiting while the queue is full
+	 *
+	 * @param file
+	 * @param rows
+	 */
+	void write(int file, CharSequence rows) {
+		if (rows.length() == 0) {
+			return;
+		}
+		put(new Request(file, null, rows.toString()));
+	}
+
+	/**
+	 * Writes the pending rows, closes every file and stops the writer thread
+	 */
+	@Override
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		put(CLOSE);
+		// the rows must be on disk when close returns, an interrupt is kept for the caller
+		boolean interrupted = false;
+		while (writer.isAlive()) {
+			try {
+				writer.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Queues the given request, waiting for room uninterruptibly so that no
+	 * row is lost. An interrupt received while waiting is restored afterwards.
+	 */
+	private void put(Request request) {
+		boolean interrupted = false;
+		while (true) {
+			try {
+				queue.put(request);
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void drain() {
+		List<Request> batch = new ArrayList<Request>();
+		long nextFlush = System.nanoTime() + flushInterval;
+		boolean running = true;
+		while (running) {
+			try {
+				Request request;
+				if (flushInterval == 0) {
+					request = queue.take();
+				} else {
+					request = queue.poll(Math.max(0, nextFlush - System.nanoTime()), TimeUnit.NANOSECONDS);
+				}
+				if (request != null) {
+					batch.add(request);
+					queue.drainTo(batch);
+				}
+			} catch (InterruptedException e) {
+				// only close stops the writer, the pending rows must still be written
+				continue;
+			}
+			for (Request request : batch) {
+				if (request == CLOSE) {
+					running = false;
+				} else {
+					handle(request);
+				}
+			}
+			batch.clear();
+			if (flushInterval == 0 ? queue.isEmpty() : System.nanoTime() - nextFlush >= 0) {
+				flush();
+				nextFlush = System.nanoTime() + flushInterval;
+			}
+		}
+		for (Writer file : files) {
+			if (file == null) {
+				continue;
+			}
+			try {
+				file.close();
+			} catch (IOException e) {
+				System.err.println("Cannot close log file.");
+			}
+		}
+		files.clear();
+	}
+
+	private void handle(Request request) {
+		if (request.path != null) {
+			while (files.size() <= request.file) {
+				files.add(null);
+			}
+			try {
+				Writer file = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(request.path), StandardCharsets.UTF_8), BUFFER_SIZE);
+				file.write(request.text);
+				files.set(request.file, file);
+			} catch (IOException e) {
+				System.err.println("Cannot open output log file for writing.");
+			}
+			return;
+		}
+		Writer file = request.file < files.size() ? files.get(request.file) : null;
+		if (file == null) {
+			return;
+		}
+		try {
+			file.write(request.text);
+		} catch (IOException e) {
+			System.err.println("Cannot write to log file.");
+		}
+	}
+
+	private void flush() {
+		for (Writer file : files) {
+			if (file == null) {
+				continue;
+			}
+			try {
+				file.flush();
+			} catch (IOException e) {
+				System.err.println("Cannot write to log file.");
+			}
+		}
+	}
+
+}
@@ -0,0 +1,201 @@
+package com.kcsl.loopmodel.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A persistent cache of the loop verdicts of every verified function, keyed
+ * by the fingerprint of the function (see
+ * {@link FunctionContext#getFingerprint(long)}).
+ * <p>
+ * A verdict holds the result file rows and the category counts of all the
+ * loops of a function for every event pair, so a function whose fingerprint
+ * did not change since the previous run is reported without classifying its
+ * loops again. Only the verdicts used or created by the current run are
+ * written back, verdicts of functions that changed or disappeared are
+ * dropped.
+ * <p>
+ * File layout (big endian):
+ * <pre>
+ * int magic, int version, int verdictCount
+ * verdictCount x (long fingerprint, int pairCount, int categoryCount,
+ *                 pairCount x categoryCount x (int count, int rowsLength, byte[rowsLength] rows))
+ * </pre>
+ */
+class VerdictCache {
+
+	private static final int MAGIC = 0x4c4d5643; // LMVC
+	private static final int VERSION = 1;
+
+	/**
+	 * The rows and category counts of the loops of one function, indexed by
+	 * pair and category
+	 */
+	static class Verdict {
+		final String[][] rows;
+		final int[][] counts;
+
+		Verdict(String[][] rows, int[][] counts) {
+			this.rows = rows;
+			this.counts = counts;
+		}
+	}
+
+	/** The verdicts of the previous run */
+	private final Map<Long, Verdict> previous;
+
+	/** The verdicts used or created by this run */
+	private final Map<Long, Verdict> current = new ConcurrentHashMap<Long, Verdict>();
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	private VerdictCache(Map<Long, Verdict> previous) {
+		this.previous = previous;
+	}
+
+	/**
+	 * Reads the given cache file. Verdicts are only read for the given
+	 * number of pairs and categories, a file written for another event
+	 * configuration, or a malformed or truncated file, is read as an empty
+	 * cache.
+	 *
+	 * @param file
+	 * @param pairCount The number of classified event pairs
+	 * @param categoryCount The number of result categories of a pair
+	 * @return The cache, empty if the file does not exist or is not a well formed verdict cache
+	 * @throws IOException
+	 */
+	static VerdictCache load(Path file, int pairCount, int categoryCount) throws IOException {
+		Map<Long, Verdict> verdicts = new ConcurrentHashMap<Long, Verdict>();
+		if (!Files.isRegularFile(file)) {
+			return new VerdictCache(verdicts);
+		}
+		// every length is checked against the bytes left in the file before anything is allocated
+		long remaining = Files.size(file);
+		try (InputStream stream = Files.newInputStream(file);
+				DataInputStream input = new DataInputStream(new BufferedInputStream(stream, 1 << 16))) {
+			if (remaining < 12 || input.readInt() != MAGIC || input.readInt() != VERSION) {
+				return new VerdictCache(new ConcurrentHashMap<Long, Verdict>());
+			}
+			int verdictCount = input.readInt();
+			remaining -= 12;
+			if (verdictCount < 0 || verdictCount > remaining / 16) {
+				return new VerdictCache(new ConcurrentHashMap<Long, Verdict>());
+			}
+			for (int i = 0; i < verdictCount; i++) {
+				long fingerprint = input.readLong();
+				if (input.readInt() != pairCount || input.readInt() != categoryCount) {
+					return new VerdictCache(new ConcurrentHashMap<Long, Verdict>());
+				}
+				remaining -= 16;
+				String[][] rows = new String[pairCount][categoryCount];
+				int[][] counts = new int[pairCount][categoryCount];
+				for (int pair = 0; pair < pairCount; pair++) {
+					for (int category = 0; category < categoryCount; category++) {
+						counts[pair][category] = input.readInt();
+						int rowsLength = input.readInt();
+						remaining -= 8;
+						if (rowsLength < 0 || rowsLength > remaining) {
+							return new VerdictCache(new ConcurrentHashMap<Long, Verdict>());
+						}
+						byte[] bytes = new byte[rowsLength];
+						input.readFully(bytes);
+						remaining -= rowsLength;
+						rows[pair][category] = new String(bytes, StandardCharsets.UTF_8);
+					}
+				}
+				verdicts.put(fingerprint, new Verdict(rows, counts));
+			}
+		} catch (EOFException e) {
+			return new VerdictCache(new ConcurrentHashMap<Long, Verdict>());
+		}
+		return new VerdictCache(verdicts);
+	}
+
+	/**
+	 * Returns the verdict of the previous run for the given fingerprint and
+	 * keeps it for the next run.
+	 *
+	 * @param fingerprint
+	 * @return The verdict or null if the function was not verified with this fingerprint
+	 */
+	Verdict get(long fingerprint) {
+		Verdict verdict = previous.get(fingerprint);
+		if (verdict == null) {
+			misses.increment();
+			return null;
+		}
+		hits.increment();
+		current.put(fingerprint, verdict);
+		return verdict;
+	}
+
+	void put(long fingerprint, Verdict verdict) {
+		current.put(fingerprint, verdict);
+	}
+
+	long getHits() {
+		return hits.sum();
+	}
+
+	long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Writes the verdicts used or created by this run. The file is written
+	 * next to the target and moved into place, so a failed write keeps the
+	 * previous cache. Only call this for a run that verified every function.
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	void write(Path file) throws IOException {
+		Path parent = file.toAbsolutePath().getParent();
+		if (parent != null) {
+			Files.createDirectories(parent);
+		}
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		try (OutputStream stream = Files.newOutputStream(temporary);
+				DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16))) {
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			output.writeInt(current.size());
+			for (Map.Entry<Long, Verdict> entry : current.entrySet()) {
+				Verdict verdict = entry.getValue();
+				output.writeLong(entry.getKey());
+				output.writeInt(verdict.rows.length);
+				output.writeInt(verdict.rows.length == 0 ? 0 : verdict.rows[0].length);
+				for (int pair = 0; pair < verdict.rows.length; pair++) {
+					for (int category = 0; category < verdict.rows[pair].length; category++) {
+						output.writeInt(verdict.counts[pair][category]);
+						byte[] bytes = verdict.rows[pair][category].getBytes(StandardCharsets.UTF_8);
+						output.writeInt(bytes.length);
+						output.write(bytes);
+					}
+				}
+			}
+		}
+		try {
+			Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+}
@@ -0,0 +1,181 @@
+package com.kcsl.loopmodel.util;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import com.ensoftcorp.atlas.core.db.graph.Node;
+import com.ensoftcorp.atlas.core.log.Log;
+import com.ensoftcorp.atlas.core.query.Q;
+import com.ensoftcorp.atlas.core.xcsg.XCSG;
+
+/**
+ * The graphs saved during a verification run, stored once per content.
+ * <p>
+ * A graph is identified by a digest of its kind, its function (or loop, for
+ * loop scoped graphs) and the nodes of each highlighted event set, which only
+ * depends on names and source correspondence, so the same graph gets the same
+ * digest in every run. The first loop needing a graph renders it into the
+ * artifacts directory, other loops wait for it. Each loop directory gets a symbolic link to the
+ * artifact, or a row in the index file where links are not supported.
+ * <p>
+ * Safe for use by all the export workers.
+ */
+public class GraphArtifacts {
+
+	/** Renders a graph into the given directory */
+	interface Renderer {
+		/**
+		 * @param directory
+		 * @return The saved file, null if nothing was saved
+		 */
+		File render(File directory);
+	}
+
+	private final Path directory;
+	private final Path indexFile;
+	private final ConcurrentHashMap<String, FutureTask<File>> artifacts = new ConcurrentHashMap<String, FutureTask<File>>();
+
+	/** The index of the links that could not be created, opened on first use */
+	private Writer index;
+
+	/**
+	 * @param directory The directory containing one directory per artifact digest
+	 * @param indexFile The file listing each loop graph and its artifact where no link could be created
+	 */
+	public GraphArtifacts(Path directory, Path indexFile) {
+		this.directory = directory;
+		this.indexFile = indexFile;
+	}
+
+	/**
+	 * Returns the digest of the graph of the given kind for the given
+	 * function, or loop header for a loop scoped graph, and highlighted event
+	 * sets.
+	 *
+	 * @param kind
+	 * @param owner
+	 * @param eventSets The sets highlighted in different colors, in a fixed order
+	 * @return
+	 */
+	static String digest(String kind, Node owner, Q... eventSets) {
+		StringBuilder key = new StringBuilder(kind).append('|').append(key(owner));
+		for (Q eventSet : eventSets) {
+			List<String> nodes = new ArrayList<String>();
+			for (Node node : eventSet.eval().nodes()) {
+				nodes.add(key(node));
+			}
+			Collections.sort(nodes);
+			key.append('|');
+			for (String node : nodes) {
+				key.append(node).append(';');
+			}
+		}
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.toString().getBytes(StandardCharsets.UTF_8));
+			StringBuilder hex = new StringBuilder(digest.length * 2);
+			for (byte b : digest) {
+				hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String key(Node node) {
+		Object sourceCorrespondence = node.getAttr(XCSG.sourceCorrespondence);
+		return node.getAttr(XCSG.name) + "@" + (sourceCorrespondence == null ? node.address().toAddressString() : sourceCorrespondence.toString());
+	}
+
+	/**
+	 * Saves the graph with the given digest into the given loop directory,
+	 * rendering it if no loop of this run rendered it yet.
+	 *
+	 * @param digest
+	 * @param loopDirectory
+	 * @param renderer
+	 */
+	void save(String digest, File loopDirectory, final Renderer renderer) {
+		final File artifactDirectory = directory.resolve(digest).toFile();
+		FutureTask<File> artifact = new FutureTask<File>(new Callable<File>() {
+			@Override
+			public File call() {
+				if (!artifactDirectory.exists() && !artifactDirectory.mkdirs()) {
+					Log.info("Cannot create directory:" + artifactDirectory.getAbsolutePath());
+				}
+				return renderer.render(artifactDirectory);
+			}
+		});
+		FutureTask<File> rendered = artifacts.putIfAbsent(digest, artifact);
+		if (rendered == null) {
+			rendered = artifact;
+			artifact.run();
+		}
+		File file;
+		try {
+			file = rendered.get();
+		} catch (InterruptedException e) {
+			Log.warning("Caught thread interruption exception", e);
+			Thread.currentThread().interrupt();
+			return;
+		} catch (ExecutionException e) {
+			Log.error("Problem in graph export worker", e.getCause());
+			return;
+		}
+		if (file != null) {
+			link(file.toPath(), loopDirectory.toPath().resolve(file.getName()));
+		}
+	}
+
+	private void link(Path artifact, Path link) {
+		try {
+			Files.deleteIfExists(link);
+			Files.createSymbolicLink(link, link.getParent().relativize(artifact));
+		} catch (IOException | UnsupportedOperationException e) {
+			index(artifact, link);
+		}
+	}
+
+	private synchronized void index(Path artifact, Path link) {
+		try {
+			if (index == null) {
+				index = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(indexFile), StandardCharsets.UTF_8));
+				index.write("Graph, Artifact\n");
+			}
+			index.write(link + " , " + artifact + "\n");
+		} catch (IOException e) {
+			System.err.println("Cannot write to log file.");
+		}
+	}
+
+	/**
+	 * Closes the index file, once every graph is saved
+	 */
+	public synchronized void close() {
+		if (index == null) {
+			return;
+		}
+		try {
+			index.close();
+		} catch (IOException e) {
+			System.err.println("Cannot close log file.");
+		}
+		index = null;
+	}
+
+}
@@ -0,0 +1,116 @@
+package com.kcsl.loopmodel.util;
+
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.ensoftcorp.atlas.core.db.graph.Node;
+import com.ensoftcorp.atlas.core.db.set.AtlasHashSet;
+import com.ensoftcorp.atlas.core.log.Log;
+import com.ensoftcorp.atlas.core.query.Q;
+import com.ensoftcorp.atlas.core.script.Common;
+
+/**
+ * Saves the graphs of classified loops on a pool of background workers, so
+ * the verification threads do not wait for the graphs to be rendered.
+ * <p>
+ * At most <code>capacity</code> graphs wait for a worker, a thread saving a
+ * graph while the queue is full waits until a worker takes one.
+ * {@link #close()} waits for every submitted graph to be saved.
+ */
+public class GraphExporter {
+
+	private final ExecutorService workers;
+
+	/** One permit per graph that can be waiting or being saved */
+	private final Semaphore slots;
+	private final int slotCount;
+
+	/** The graphs saved by the run, null to render every graph into its loop's directory */
+	private final GraphArtifacts artifacts;
+
+	/** The PCGs built by the run, null to build the PCG of every loop */
+	private final PCGCache pcgCache;
+
+	/**
+	 * Starts the export workers.
+	 *
+	 * @param parallelism The number of workers, a non-positive value uses one per available processor
+	 * @param capacity The number of graphs that can wait for a worker
+	 * @param artifacts The store rendering each distinct graph once, null to render every graph of every loop
+	 * @param pcgCache The PCGs shared by the loops of the run, null to build the PCG of every loop
+	 */
+	public GraphExporter(int parallelism, int capacity, GraphArtifacts artifacts, PCGCache pcgCache) {
+		int workerCount = parallelism <= 0 ? Runtime.getRuntime().availableProcessors() : parallelism;
+		this.workers = Executors.newFixedThreadPool(workerCount);
+		this.slotCount = workerCount + Math.max(0, capacity);
+		this.slots = new Semaphore(slotCount);
+		this.artifacts = artifacts;
+		this.pcgCache = pcgCache;
+	}
+
+	/**
+	 * Queues the graphs of the given loop, see
+	 * {@link Utils#saveGraph(Node, Node, Q, Q, Q, Q, Path, String, String, GraphArtifacts, PCGCache)}.
+	 * The event sets are copied, so the caller can keep updating them.
+	 */
+	public void saveGraph(final Node loopHeader, final Node function, final Q cfg, Q event1, Q event2, Q callsiteEvents,
+			final Path dir, final String category, final String signatureName) {
+		final Q event1Nodes = snapshot(event1);
+		final Q event2Nodes = snapshot(event2);
+		final Q callsiteEventNodes = snapshot(callsiteEvents);
+		try {
+			slots.acquire();
+		} catch (InterruptedException e) {
+			Log.warning("Caught thread interruption exception", e);
+			Thread.currentThread().interrupt();
+			return;
+		}
+		try {
+			workers.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						Utils.saveGraph(loopHeader, function, cfg, event1Nodes, event2Nodes, callsiteEventNodes, dir, category, signatureName, artifacts, pcgCache);
+					} catch (RuntimeException e) {
+						Log.error("Problem in graph export worker", e);
+					} finally {
+						slots.release();
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			slots.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Waits for every queued graph to be saved and stops the workers
+	 */
+	public void close() {
+		workers.shutdown();
+		try {
+			while (!workers.awaitTermination(1, TimeUnit.MINUTES)) {
+				Log.info("Waiting for " + (slotCount - slots.availablePermits()) + " graphs to be saved");
+			}
+		} catch (InterruptedException e) {
+			Log.warning("Caught thread interruption exception", e);
+			workers.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+		if (artifacts != null) {
+			artifacts.close();
+		}
+		if (pcgCache != null) {
+			pcgCache.clear();
+		}
+	}
+
+	private static Q snapshot(Q nodes) {
+		return Common.toQ(new AtlasHashSet<Node>(nodes.eval().nodes()));
+	}
+
+}
@@ -0,0 +1,209 @@
+package com.kcsl.loopmodel.util;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.ensoftcorp.atlas.core.db.graph.Edge;
+import com.ensoftcorp.atlas.core.db.graph.Graph;
+import com.ensoftcorp.atlas.core.db.graph.Node;
+import com.ensoftcorp.atlas.core.db.set.AtlasSet;
+import com.ensoftcorp.atlas.core.query.Q;
+import com.ensoftcorp.atlas.core.xcsg.XCSG;
+
+/**
+ * Writes verification graphs as text, DOT or GraphML depending on the file
+ * extension, with the same highlighting as the saved images: red for the
+ * first event, green for the second event and blue for callsite events.
+ * <p>
+ * The graph is streamed node by node and edge by edge, without any layout,
+ * so writing is linear in the size of the graph.
+ */
+class GraphTextWriter {
+
+	static final String GRAPHML_EXTENSION = ".graphml";
+
+	private static final String RED = "#ff0000";
+	private static final String GREEN = "#00ff00";
+	private static final String BLUE = "#0000ff";
+
+	private final AtlasSet<Node> event1;
+	private final AtlasSet<Node> event2;
+	private final AtlasSet<Node> callsiteEvents;
+
+	GraphTextWriter(Q event1, Q event2, Q callsiteEvents) {
+		this.event1 = event1.eval().nodes();
+		this.event2 = event2.eval().nodes();
+		this.callsiteEvents = callsiteEvents.eval().nodes();
+	}
+
+	/**
+	 * Writes the given graph, as GraphML if the file name ends with
+	 * {@link #GRAPHML_EXTENSION} and as DOT otherwise.
+	 *
+	 * @param file
+	 * @param graph
+	 * @throws IOException
+	 */
+	void write(File file, Graph graph) throws IOException {
+		try (Writer writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file.toPath()), StandardCharsets.UTF_8), 1 << 16)) {
+			if (file.getName().endsWith(GRAPHML_EXTENSION)) {
+				writeGraphML(writer, graph);
+			} else {
+				writeDot(writer, graph);
+			}
+		}
+	}
+
+	/**
+	 * Returns the highlight color of the given node, null if it is not an
+	 * event. Later sets win, as with the markup of the saved images.
+	 */
+	private String getColor(Node node) {
+		if (callsiteEvents.contains(node)) {
+			return BLUE;
+		}
+		if (event2.contains(node)) {
+			return GREEN;
+		}
+		if (event1.contains(node)) {
+			return RED;
+		}
+		return null;
+	}
+
+	private void writeDot(Writer writer, Graph graph) throws IOException {
+		Map<Node, Integer> ids = new HashMap<Node, Integer>();
+		writer.write("digraph G {\n");
+		writer.write("\tnode [shape=box];\n");
+		for (Node node : graph.nodes()) {
+			int id = ids.size();
+			ids.put(node, id);
+			writer.write("\tn");
+			writer.write(Integer.toString(id));
+			writer.write(" [label=\"");
+			writer.write(escapeDot(String.valueOf(node.getAttr(XCSG.name))));
+			writer.write('"');
+			String color = getColor(node);
+			if (color != null) {
+				writer.write(", style=filled, fillcolor=\"");
+				writer.write(color);
+				writer.write('"');
+			}
+			writer.write("];\n");
+		}
+		for (Edge edge : graph.edges()) {
+			Integer from = ids.get(edge.from());
+			Integer to = ids.get(edge.to());
+			if (from == null || to == null) {
+				continue;
+			}
+			writer.write("\tn");
+			writer.write(Integer.toString(from));
+			writer.write(" -> n");
+			writer.write(Integer.toString(to));
+			Object condition = edge.getAttr(XCSG.conditionValue);
+			if (condition != null) {
+				writer.write(" [label=\"");
+				writer.write(escapeDot(condition.toString()));
+				writer.write("\"]");
+			}
+			writer.write(";\n");
+		}
+		writer.write("}\n");
+	}
+
+	private void writeGraphML(Writer writer, Graph graph) throws IOException {
+		Map<Node, Integer> ids = new HashMap<Node, Integer>();
+		writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		writer.write("<graphml xmlns=\"http://graphml.graphdrawing.org/xmlns\">\n");
+		writer.write("  <key id=\"label\" for=\"node\" attr.name=\"label\" attr.type=\"string\"/>\n");
+		writer.write("  <key id=\"color\" for=\"node\" attr.name=\"color\" attr.type=\"string\"/>\n");
+		writer.write("  <key id=\"condition\" for=\"edge\" attr.name=\"condition\" attr.type=\"string\"/>\n");
+		writer.write("  <graph id=\"G\" edgedefault=\"directed\">\n");
+		for (Node node : graph.nodes()) {
+			int id = ids.size();
+			ids.put(node, id);
+			writer.write("    <node id=\"n");
+			writer.write(Integer.toString(id));
+			writer.write("\"><data key=\"label\">");
+			writer.write(escapeXML(String.valueOf(node.getAttr(XCSG.name))));
+			writer.write("</data>");
+			String color = getColor(node);
+			if (color != null) {
+				writer.write("<data key=\"color\">");
+				writer.write(color);
+				writer.write("</data>");
+			}
+			writer.write("</node>\n");
+		}
+		for (Edge edge : graph.edges()) {
+			Integer from = ids.get(edge.from());
+			Integer to = ids.get(edge.to());
+			if (from == null || to == null) {
+				continue;
+			}
+			writer.write("    <edge source=\"n");
+			writer.write(Integer.toString(from));
+			writer.write("\" target=\"n");
+			writer.write(Integer.toString(to));
+			writer.write('"');
+			Object condition = edge.getAttr(XCSG.conditionValue);
+			if (condition != null) {
+				writer.write("><data key=\"condition\">");
+				writer.write(escapeXML(condition.toString()));
+				writer.write("</data></edge>\n");
+			} else {
+				writer.write("/>\n");
+			}
+		}
+		writer.write("  </graph>\n");
+		writer.write("</graphml>\n");
+	}
+
+	private static String escapeDot(String string) {
+		StringBuilder escaped = new StringBuilder(string.length());
+		for (int i = 0; i < string.length(); i++) {
+			char c = string.charAt(i);
+			if (c == '"' || c == '\\') {
+				escaped.append('\\').append(c);
+			} else if (c == '\n') {
+				escaped.append("\\n");
+			} else if (c != '\r') {
+				escaped.append(c);
+			}
+		}
+		return escaped.toString();
+	}
+
+	private static String escapeXML(String string) {
+		StringBuilder escaped = new StringBuilder(string.length());
+		for (int i = 0; i < string.length(); i++) {
+			char c = string.charAt(i);
+			switch (c) {
+			case '<':
+				escaped.append("&lt;");
+				break;
+			case '>':
+				escaped.append("&gt;");
+				break;
+			case '&':
+				escaped.append("&amp;");
+				break;
+			case '"':
+				escaped.append("&quot;");
+				break;
+			default:
+				escaped.append(c);
+			}
+		}
+		return escaped.toString();
+	}
+
+}
@@ -0,0 +1,188 @@
+package com.kcsl.loopmodel.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import com.ensoftcorp.atlas.core.db.graph.Graph;
+import com.ensoftcorp.atlas.core.db.graph.GraphElement.NodeDirection;
+import com.ensoftcorp.atlas.core.db.graph.Node;
+import com.ensoftcorp.atlas.core.log.Log;
+import com.ensoftcorp.atlas.core.query.Q;
+import com.ensoftcorp.open.pcg.common.PCGFactory;
+
+/**
+ * The PCGs built while saving verification graphs, keyed by function (or
+ * loop, for loop scoped graphs) and event nodes, so loops of a function with
+ * the same events share one PCG.
+ * <p>
+ * The first worker needing a PCG builds it, other workers needing the same
+ * PCG meanwhile wait for it instead of building it again. The cache is
+ * bounded by the number of nodes and edges of the cached PCGs, evicting the
+ * least recently used PCG first. Keys use graph addresses, so a cache is
+ * created for each verification run. Safe for use by all the export workers.
+ */
+public class PCGCache {
+
+	/** A PCG and its counts, computed once */
+	static class Entry {
+		final Graph pcg;
+		final long nodes;
+		final long edges;
+		final long conditions;
+
+		Entry(Graph pcg) {
+			this.pcg = pcg;
+			this.nodes = pcg.nodes().size();
+			this.edges = pcg.edges().size();
+			long conditions = 0;
+			for (Node node : pcg.nodes()) {
+				if (pcg.edges(node, NodeDirection.OUT).size() > 1) {
+					conditions++;
+				}
+			}
+			this.conditions = conditions;
+		}
+
+		long getSize() {
+			return nodes + edges;
+		}
+	}
+
+	/** A cached PCG, being built until its size is known */
+	private static class Slot {
+		final FutureTask<Entry> task;
+		/** The size counted against the capacity, -1 while the PCG is being built */
+		long size = -1;
+
+		Slot(FutureTask<Entry> task) {
+			this.task = task;
+		}
+	}
+
+	private final long capacity;
+	private final LinkedHashMap<String, Slot> slots = new LinkedHashMap<String, Slot>(16, 0.75f, true);
+	private long size;
+
+	/**
+	 * @param capacity The maximum number of nodes and edges of the cached PCGs, 0 to not cache
+	 */
+	public PCGCache(long capacity) {
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Returns the PCG of the given CFG for the given event nodes, building it
+	 * on a miss or waiting for the worker already building it.
+	 *
+	 * @param owner The function of the CFG, or the loop header of a loop scoped CFG
+	 * @param cfg
+	 * @param roots
+	 * @param exits
+	 * @param eventNodes
+	 * @return
+	 */
+	Entry get(Node owner, final Q cfg, final Q roots, final Q exits, final Q eventNodes) {
+		if (capacity <= 0) {
+			return create(cfg, roots, exits, eventNodes);
+		}
+		String key = key(owner, eventNodes);
+		Slot slot;
+		boolean building = false;
+		synchronized (this) {
+			slot = slots.get(key);
+			if (slot == null) {
+				slot = new Slot(new FutureTask<Entry>(new Callable<Entry>() {
+					@Override
+					public Entry call() {
+						return create(cfg, roots, exits, eventNodes);
+					}
+				}));
+				slots.put(key, slot);
+				building = true;
+			}
+		}
+		if (building) {
+			// build outside the lock, other workers keep using the cache meanwhile
+			slot.task.run();
+			account(key, slot);
+		}
+		try {
+			return slot.task.get();
+		} catch (InterruptedException e) {
+			Log.warning("Caught thread interruption exception", e);
+			Thread.currentThread().interrupt();
+			return create(cfg, roots, exits, eventNodes);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IllegalStateException(cause);
+		}
+	}
+
+	/**
+	 * Counts a built PCG against the capacity and evicts the least recently
+	 * used PCGs, a failed or oversized PCG is not kept.
+	 */
+	private synchronized void account(String key, Slot slot) {
+		Entry entry;
+		try {
+			entry = slot.task.get();
+		} catch (InterruptedException | ExecutionException e) {
+			entry = null;
+		}
+		if (entry == null || entry.getSize() > capacity) {
+			if (slots.get(key) == slot) {
+				slots.remove(key);
+			}
+			return;
+		}
+		slot.size = entry.getSize();
+		size += slot.size;
+		Iterator<Slot> eldest = slots.values().iterator();
+		while (size > capacity && eldest.hasNext()) {
+			Slot evicted = eldest.next();
+			// PCGs still being built are not counted yet
+			if (evicted.size >= 0) {
+				size -= evicted.size;
+				eldest.remove();
+			}
+		}
+	}
+
+	synchronized void clear() {
+		slots.clear();
+		size = 0;
+	}
+
+	/**
+	 * Builds the PCG of the given CFG for the given event nodes without caching it
+	 */
+	static Entry create(Q cfg, Q roots, Q exits, Q eventNodes) {
+		return new Entry(PCGFactory.create(cfg, roots, exits, eventNodes).getPCG().eval());
+	}
+
+	private static String key(Node owner, Q eventNodes) {
+		List<String> nodes = new ArrayList<String>();
+		for (Node node : eventNodes.eval().nodes()) {
+			nodes.add(node.address().toAddressString());
+		}
+		Collections.sort(nodes);
+		StringBuilder key = new StringBuilder(owner.address().toAddressString());
+		for (String node : nodes) {
+			key.append(',').append(node);
+		}
+		return key.toString();
+	}
+
+}
@@ -6,7 +6,6 @@ import java.io.IOException;
 import java.nio.file.Path;
 
 import com.ensoftcorp.atlas.core.db.graph.Graph;
-import com.ensoftcorp.atlas.core.db.graph.GraphElement.NodeDirection;
 import com.ensoftcorp.atlas.core.db.graph.Node;
 import com.ensoftcorp.atlas.core.index.common.SourceCorrespondence;
 import com.ensoftcorp.atlas.core.log.Log;
@@ -19,8 +18,8 @@ import com.ensoftcorp.atlas.ui.viewer.graph.SaveUtil;
 import com.ensoftcorp.open.c.commons.analysis.CommonQueries;
 import com.ensoftcorp.open.commons.utilities.FormattedSourceCorrespondence;
 import com.ensoftcorp.open.pcg.common.PCG;
-import com.ensoftcorp.open.pcg.common.PCGFactory;
 import com.kcsl.loopmodel.MemoryVerificationProperties;
+import com.kcsl.loopmodel.algorithms.DLI;
 
 public class Utils {
 	
@@ -69,8 +68,9 @@ public class Utils {
 	 * @param sourceFile The source file for the <code>methodName</code>.
 	 * @param markup An instance of {@link Markup} defined on this <code>cfgGraph</code>.
 	 * @param displayGraphs Whether to display verification graphs to the user. 
+	 * @return The saved file.
 	 */
-	private static void saveDisplayCFG(Graph cfgGraph, String methodName, String sourceFile, Markup markup, boolean displayGraphs, File path) {
+	private static File saveDisplayCFG(Graph cfgGraph, String methodName, String sourceFile, Markup markup, GraphTextWriter textWriter, boolean displayGraphs, File path) {
 		long nodes = cfgGraph.nodes().size();
 		long edges = cfgGraph.edges().size();
 		long conditions = cfgGraph.nodes().tagged(XCSG.ControlFlowCondition).size();
@@ -79,46 +79,70 @@ public class Utils {
 			DisplayUtil.displayGraph(markup, cfgGraph);
 		}
 		
-				try{
-					String cfgFileName = String.format(CFG_GRAPH_FILE_NAME_PATTERN, methodName, sourceFile, nodes, edges, conditions,MemoryVerificationProperties.getGraphImageFileNameExtension());
-					SaveUtil.saveGraph(new File(path, cfgFileName), cfgGraph, markup).join();
-				} catch (InterruptedException e) {}
+				String cfgFileName = String.format(CFG_GRAPH_FILE_NAME_PATTERN, methodName, sourceFile, nodes, edges, conditions, getGraphFileNameExtension(textWriter));
+				File cfgFile = new File(path, cfgFileName);
+				saveGraphFile(cfgFile, cfgGraph, markup, textWriter);
+				return cfgFile;
 	}
 
 	/**
 	 * Creates a saves the PCG corresponding to the given <code>cfg</code> and <code>eventNodes</code>.
 	 * 
+	 * @param owner The function of the <code>cfg</code>, or the loop header of a loop scoped <code>cfg</code>.
 	 * @param cfg The CFG from which the PCG to be created.
 	 * @param methodName A {@link String} corresponding to the function name associated with the <code>cfg</code>.
 	 * @param sourceFile The source file for the <code>methodName</code>.
 	 * @param eventNodes A list of event nodes to be used for {@link PCG} construction from the <code>cfg</code>.
 	 * @param markup An instance of {@link Markup} defined on this <code>cfg</code>.
 	 * @param displayGraphs  Whether to display verification graphs to the user. 
+	 * @param pcgCache The PCGs of the current verification run, null to build the PCG.
+	 * @return The saved file.
 	 */
-	private static void saveDisplayPCG(Q cfg, String methodName, String sourceFile, Q eventNodes, Markup markup, boolean displayGraphs, File path) {
-		PCG pcg = PCGFactory.create(cfg, cfg.nodes(XCSG.controlFlowRoot), cfg.nodes(XCSG.controlFlowExitPoint), eventNodes);
-		Q pcgQ = pcg.getPCG();
-		Graph pcgGraph = pcgQ.eval();
+	private static File saveDisplayPCG(Node owner, Q cfg, String methodName, String sourceFile, Q eventNodes, Markup markup, GraphTextWriter textWriter, boolean displayGraphs, File path, PCGCache pcgCache) {
+		Q roots = cfg.nodes(XCSG.controlFlowRoot);
+		Q exits = cfg.nodes(XCSG.controlFlowExitPoint);
+		if (MemoryVerificationProperties.isLoopScopedGraphs()) {
+			// a loop scoped CFG is entered and left through the ends of its entry and exit edges
+			roots = roots.union(cfg.roots());
+			exits = exits.union(cfg.leaves());
+		}
+		PCGCache.Entry pcg = pcgCache == null ? PCGCache.create(cfg, roots, exits, eventNodes) : pcgCache.get(owner, cfg, roots, exits, eventNodes);
+		Graph pcgGraph = pcg.pcg;
 		
 		// STEP 3A: SAVE PCG
-		long nodes = pcgGraph.nodes().size();
-		long edges = pcgGraph.edges().size();
-		long conditions = 0;
-		for(Node node : pcgGraph.nodes()){
-			if(pcgGraph.edges(node, NodeDirection.OUT).size() > 1){
-				conditions++;
-			}
-		}
+		long nodes = pcg.nodes;
+		long edges = pcg.edges;
+		long conditions = pcg.conditions;
 		
 		if(displayGraphs){
 			DisplayUtil.displayGraph(markup, pcgGraph);
 		}
 		
-				try {
-					String pcgFileName = String.format(PCG_GRAPH_FILE_NAME_PATTERN, methodName, sourceFile, nodes, edges, conditions, MemoryVerificationProperties.getGraphImageFileNameExtension());
-					SaveUtil.saveGraph(new File(path, pcgFileName), pcgGraph, markup).join();
-				} catch (InterruptedException e) {}
-
+				String pcgFileName = String.format(PCG_GRAPH_FILE_NAME_PATTERN, methodName, sourceFile, nodes, edges, conditions, getGraphFileNameExtension(textWriter));
+				File pcgFile = new File(path, pcgFileName);
+				saveGraphFile(pcgFile, pcgGraph, markup, textWriter);
+				return pcgFile;
+	}
+	
+	private static String getGraphFileNameExtension(GraphTextWriter textWriter) {
+		return textWriter == null ? MemoryVerificationProperties.getGraphImageFileNameExtension() : MemoryVerificationProperties.getGraphDotFileNameExtension();
+	}
+	
+	/**
+	 * Saves the given graph as an image through the layout engine, or as text with the given <code>textWriter</code>.
+	 */
+	private static void saveGraphFile(File file, Graph graph, Markup markup, GraphTextWriter textWriter) {
+		if (textWriter != null) {
+			try {
+				textWriter.write(file, graph);
+			} catch (IOException e) {
+				Log.warning("Unable to save graph " + file.getAbsolutePath(), e);
+			}
+			return;
+		}
+		try {
+			SaveUtil.saveGraph(file, graph, markup).join();
+		} catch (InterruptedException e) {}
 	}
 	/**
 	 * Replaces the '/' with '@' for proper escaping when embedding within a filename.
@@ -173,36 +197,74 @@ public class Utils {
 	}
 	
 	public static void saveGraph(Node loopHeader, Node function, Q event1, Q event2, Q callsiteEvents, Path dir, String category, String signatureName) {
+		saveGraph(loopHeader, function, CommonQueries.cfg(function), event1, event2, callsiteEvents, dir, category, signatureName);
+	}
+	
+	/**
+	 * Saves the graphs of the given loop, reusing the already computed <code>cfg</code> of its function.
+	 */
+	public static void saveGraph(Node loopHeader, Node function, Q cfg, Q event1, Q event2, Q callsiteEvents, Path dir, String category, String signatureName) {
+		saveGraph(loopHeader, function, cfg, event1, event2, callsiteEvents, dir, category, signatureName, null, null);
+	}
+	
+	/**
+	 * Saves the graphs of the given loop, rendering each distinct graph once
+	 * into the given <code>artifacts</code> and linking it from the loop's
+	 * directory.
+	 * 
+	 * @param artifacts The graphs saved by this run, null to render the graphs into the loop's directory
+	 * @param pcgCache The PCGs built by this run, null to build the PCG of every loop
+	 */
+	public static void saveGraph(Node loopHeader, Node function, Q cfg, Q event1, Q event2, Q callsiteEvents, Path dir, String category, String signatureName, GraphArtifacts artifacts, PCGCache pcgCache) {
 		File path = createContainingDirectory(dir,loopHeader,category,signatureName);
-	    save(loopHeader, function, event1, event2, callsiteEvents, path);	
+	    save(loopHeader, function, cfg, event1, event2, callsiteEvents, path, artifacts, pcgCache);	
 	}
 	
-	private static void save(Node loopHeader, Node function, Q event1,Q event2, Q callsiteEvents,File path) {
-		String methodName = function.getAttr(XCSG.name).toString();
+	private static void save(Node loopHeader, Node function, final Q cfg, Q event1,Q event2, Q callsiteEvents,File path, GraphArtifacts artifacts, final PCGCache pcgCache) {
+		final String methodName = function.getAttr(XCSG.name).toString();
 		SourceCorrespondence sc = (SourceCorrespondence) function.attr().get(XCSG.sourceCorrespondence);
-		String sourceFile = "<external>";
+		String sourceFileName = "<external>";
 		if(sc != null){
-			sourceFile = fixSlashes(sc.toString());
+			sourceFileName = fixSlashes(sc.toString());
 		}
+		final String sourceFile = sourceFileName;
 		
-		Q cfg = CommonQueries.cfg(function);
-		if(cfg.eval().nodes().isEmpty()) {
+		final Graph cfgGraph = cfg.eval();			
+		if(cfgGraph.nodes().isEmpty()) {
 			return;
 		}
-		Graph cfgGraph = cfg.eval();			
 		
 		
-		Q eventNodes = event1.union(event2,callsiteEvents);
+		final Q eventNodes = event1.union(event2,callsiteEvents);
+		// loop scoped graphs differ for every loop of a function
+		final Node graphOwner = MemoryVerificationProperties.isLoopScopedGraphs() ? loopHeader : function;
 		
 
 		
-		Markup markup = new Markup();
+		final Markup markup = new Markup();
 		markup.set(event1, MarkupProperty.NODE_BACKGROUND_COLOR, Color.RED);
 		markup.set(event2, MarkupProperty.NODE_BACKGROUND_COLOR, Color.GREEN);
 		markup.set(callsiteEvents, MarkupProperty.NODE_BACKGROUND_COLOR, Color.BLUE);
+		// text graphs are written directly with the same colors, without the image layout
+		final GraphTextWriter textWriter = MemoryVerificationProperties.saveGraphsInDotFormat() ? new GraphTextWriter(event1, event2, callsiteEvents) : null;
 		
-		saveDisplayCFG(cfgGraph, methodName, sourceFile, markup, false, path);
-		saveDisplayPCG(cfg, methodName, sourceFile, eventNodes, markup, false, path);
+		if (artifacts == null) {
+			saveDisplayCFG(cfgGraph, methodName, sourceFile, markup, textWriter, false, path);
+			saveDisplayPCG(graphOwner, cfg, methodName, sourceFile, eventNodes, markup, textWriter, false, path, pcgCache);
+			return;
+		}
+		artifacts.save(GraphArtifacts.digest("CFG", graphOwner, event1, event2, callsiteEvents), path, new GraphArtifacts.Renderer() {
+			@Override
+			public File render(File directory) {
+				return saveDisplayCFG(cfgGraph, methodName, sourceFile, markup, textWriter, false, directory);
+			}
+		});
+		artifacts.save(GraphArtifacts.digest("PCG", graphOwner, event1, event2, callsiteEvents), path, new GraphArtifacts.Renderer() {
+			@Override
+			public File render(File directory) {
+				return saveDisplayPCG(graphOwner, cfg, methodName, sourceFile, eventNodes, markup, textWriter, false, directory, pcgCache);
+			}
+		});
 	}
 	
 	
@@ -214,7 +276,9 @@ public class Utils {
 			sourceCorrespondenceString = fixSlashes(sc);
 		}
 
-		String containingDirectoryName = String.format(EVENT_GRAPH_DIRECTORY_NAME_PATTERN, category, loopHeader.addressBits(), sourceCorrespondenceString, signatureName);
+		// the DLI loop id is stable across runs, so cached verdicts keep pointing at the graphs of their loop
+		Object loopID = loopHeader.hasAttr(DLI.CFGNode.LOOP_HEADER_ID) ? loopHeader.getAttr(DLI.CFGNode.LOOP_HEADER_ID).toString().replace(':', '-') : loopHeader.addressBits();
+		String containingDirectoryName = String.format(EVENT_GRAPH_DIRECTORY_NAME_PATTERN, category, loopID, sourceCorrespondenceString, signatureName);
 		File currentGraphsOutputDirectory = path.resolve(containingDirectoryName).toFile();
 		if(currentGraphsOutputDirectory.exists()) {
 			return currentGraphsOutputDirectory;